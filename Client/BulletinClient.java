@@ -1,28 +1,260 @@
 import java.net.*;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class BulletinClient {
 
+    // Binary frame opcodes (must match server.BinaryCodec)
+    private static final byte OP_POST = 1;
+    private static final byte OP_GET_PINS = 3;
+    private static final byte OP_PIN = 4;
+    private static final byte OP_UNPIN = 5;
+    private static final byte OP_SHAKE = 6;
+    private static final byte OP_CLEAR = 7;
+    private static final byte OP_DISCONNECT = 8;
+    private static final byte OP_SUBSCRIBE = 9;
+    private static final byte OP_UNSUBSCRIBE = 10;
+    private static final byte OP_LINE = 15;
+    private static final byte OP_REPLY = (byte) 0x80;
+    private static final byte OP_NOTES = (byte) 0x81;
+    private static final byte OP_PINS = (byte) 0x82;
+    private static final byte OP_EVENT = (byte) 0x83;
+
+    // NOTES cursor of a streamed frame that is not the last one
+    private static final int STREAM_MORE = -2;
+
     private Socket socket;
     private PrintWriter out;
     private BufferedReader in;
 
+    // Binary mode streams (null in text mode)
+    private DataOutputStream binOut;
+    private DataInputStream binIn;
+
+    // WELCOME line and the color palette it announced (color ids index into it);
+    // the palette is replaced when a JOIN moves the connection to another board
+    private String welcome;
+    private volatile String[] palette = new String[0];
+
+    // JOINs sent whose reply has not been read yet. Until then the palette may be
+    // about to change, so POST sends its color by name (the server resolves it on
+    // the board it is on by then).
+    private final AtomicInteger joinsInFlight = new AtomicInteger();
+
     // Constructor connects to the server
     public BulletinClient(String host, int port) throws IOException {
+        this(host, port, false);
+    }
+
+    // Connects and, if 'binary' is set, asks the server to switch to binary frames
+    // right after WELCOME. Falls back to text if the server refuses.
+    public BulletinClient(String host, int port, boolean binary) throws IOException {
+        if (!binary) {
+            socket = new Socket(host, port);
+            out = new PrintWriter(socket.getOutputStream(), true);
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            return;
+        }
+
         socket = new Socket(host, port);
-        out = new PrintWriter(socket.getOutputStream(), true);
-        in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        socket.setTcpNoDelay(true);
+        DataInputStream rawIn = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        OutputStream rawOut = new BufferedOutputStream(socket.getOutputStream());
+
+        // Handshake is still text; read it byte by byte so no binary data is buffered away
+        welcome = readLine(rawIn);
+        if (welcome != null && welcome.startsWith("WELCOME ")) palette = colorsOf(welcome, 5);
+
+        rawOut.write("BINARY\n".getBytes(StandardCharsets.UTF_8));
+        rawOut.flush();
+        String reply = readLine(rawIn);
+
+        if ("OK BINARY".equals(reply)) {
+            binIn = rawIn;
+            binOut = new DataOutputStream(rawOut);
+        } else {
+            out = new PrintWriter(new OutputStreamWriter(rawOut, StandardCharsets.UTF_8), true);
+            in = new BufferedReader(new InputStreamReader(rawIn, StandardCharsets.UTF_8));
+        }
+    }
+
+    public boolean isBinary() {
+        return binOut != null;
     }
 
     // Send a command to the server
     public void sendCommand(String command) {
-        out.println(command);
+        if (binOut == null) {
+            out.println(command);
+            return;
+        }
+        try {
+            sendFrame(command);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Fast paths for high-rate traffic: no text formatting or parsing on either side
+    public void post(int x, int y, String color, String message) throws IOException {
+        if (binOut == null) {
+            out.println("POST " + x + " " + y + " " + color + " " + message);
+            return;
+        }
+        int colorId = colorId(color);
+        if (colorId < 0 || joinsInFlight.get() > 0) {
+            writeLine("POST " + x + " " + y + " " + color + " " + message); // let the server resolve it
+            return;
+        }
+        byte[] msg = message.getBytes(StandardCharsets.UTF_8);
+        synchronized (binOut) {
+            binOut.writeInt(13 + msg.length);
+            binOut.writeByte(OP_POST);
+            binOut.writeInt(x);
+            binOut.writeInt(y);
+            binOut.writeInt(colorId);
+            binOut.write(msg);
+            binOut.flush();
+        }
+    }
+
+    public void pin(int x, int y) throws IOException {
+        point(OP_PIN, "PIN", x, y);
+    }
+
+    public void unpin(int x, int y) throws IOException {
+        point(OP_UNPIN, "UNPIN", x, y);
+    }
+
+    private void point(byte op, String name, int x, int y) throws IOException {
+        if (binOut == null) {
+            out.println(name + " " + x + " " + y);
+            return;
+        }
+        synchronized (binOut) {
+            binOut.writeInt(9);
+            binOut.writeByte(op);
+            binOut.writeInt(x);
+            binOut.writeInt(y);
+            binOut.flush();
+        }
+    }
+
+    // Encode a typed command as a frame. Well-formed PIN/UNPIN/POST and the
+    // argument-less commands get their own opcode; anything else (GET filters,
+    // malformed input) travels as a LINE frame and the server parses it as text.
+    private void sendFrame(String command) throws IOException {
+        String line = command.trim();
+        if (line.isEmpty()) return; // the text protocol ignores blank lines too
+        String[] t = line.split("\\s+", 5);
+        String op = t[0].toUpperCase();
+        if (op.equals("JOIN")) joinsInFlight.incrementAndGet();
+
+        if (t.length == 1) {
+            switch (op) {
+                case "SHAKE": writeOp(OP_SHAKE); return;
+                case "CLEAR": writeOp(OP_CLEAR); return;
+                case "DISCONNECT": writeOp(OP_DISCONNECT); return;
+                case "SUBSCRIBE": writeOp(OP_SUBSCRIBE); return;
+                case "UNSUBSCRIBE": writeOp(OP_UNSUBSCRIBE); return;
+            }
+        } else if (t.length == 2 && op.equals("GET") && t[1].equalsIgnoreCase("PINS")) {
+            writeOp(OP_GET_PINS);
+            return;
+        } else if (t.length == 3 && (op.equals("PIN") || op.equals("UNPIN"))) {
+            int x = parseCoord(t[1]), y = parseCoord(t[2]);
+            if (x >= 0 && y >= 0) {
+                point(op.equals("PIN") ? OP_PIN : OP_UNPIN, op, x, y);
+                return;
+            }
+        } else if (t.length == 5 && op.equals("POST")) {
+            int x = parseCoord(t[1]), y = parseCoord(t[2]);
+            if (x >= 0 && y >= 0 && colorId(t[3]) >= 0) {
+                post(x, y, t[3], t[4]);
+                return;
+            }
+        }
+        writeLine(line);
+    }
+
+    private void writeOp(byte op) throws IOException {
+        synchronized (binOut) {
+            binOut.writeInt(1);
+            binOut.writeByte(op);
+            binOut.flush();
+        }
+    }
+
+    private void writeLine(String line) throws IOException {
+        byte[] text = line.getBytes(StandardCharsets.UTF_8);
+        synchronized (binOut) {
+            binOut.writeInt(1 + text.length);
+            binOut.writeByte(OP_LINE);
+            binOut.write(text);
+            binOut.flush();
+        }
+    }
+
+    private void joinReplied() {
+        joinsInFlight.updateAndGet(n -> Math.max(0, n - 1));
+    }
+
+    // Replies only a JOIN gets when it fails. Any other failure leaves the count up,
+    // which only means colors keep going by name.
+    private static boolean isJoinError(String reply) {
+        return reply.startsWith("ERROR INVALID_FORMAT JOIN ")
+                || reply.startsWith("ERROR BOARD_LIMIT ")
+                || reply.startsWith("ERROR BOARD_EXISTS ")
+                || reply.startsWith("ERROR BOARD_TOO_LARGE ");
+    }
+
+    // Colors listed from token 'first' on ("WELCOME w h nw nh c1 c2 ..." or "OK JOINED name w h nw nh c1 ...")
+    private static String[] colorsOf(String line, int first) {
+        String[] parts = line.split(" ");
+        String[] colors = new String[Math.max(0, parts.length - first)];
+        for (int i = 0; i < colors.length; i++) colors[i] = parts[first + i];
+        return colors;
+    }
+
+    private int colorId(String color) {
+        String[] palette = this.palette;
+        for (int i = 0; i < palette.length; i++) {
+            if (palette[i].equalsIgnoreCase(color)) return i;
+        }
+        return -1;
+    }
+
+    // Non-negative decimal coordinate, or -1
+    private static int parseCoord(String s) {
+        try {
+            int v = Integer.parseInt(s);
+            return v >= 0 ? v : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // One '\n'-terminated UTF-8 line from a raw stream, without the line end
+    private static String readLine(DataInputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') line.write(b);
+        if (b == -1 && line.size() == 0) return null;
+        return line.toString(StandardCharsets.UTF_8).replace("\r", "");
     }
 
     // Listen for server messages on a background thread
     public void listen(ServerListener listener) {
         new Thread(() -> {
             try {
+                if (binIn != null) {
+                    listener.onMessage(welcome);
+                    readFrames(listener);
+                    return;
+                }
+                if (welcome != null) listener.onMessage(welcome);
+
                 String msg;
                 while ((msg = in.readLine()) != null) {
                     listener.onMessage(msg); // callback to GUI
@@ -33,8 +265,90 @@ public class BulletinClient {
         }).start();
     }
 
+    // Binary replies are turned back into the same lines the text protocol sends,
+    // so listeners do not need to know which mode is in use
+    private void readFrames(ServerListener listener) throws IOException {
+        int streamed = -1; // notes so far while a GET ... STREAM is in progress
+        while (true) {
+            int len;
+            try {
+                len = binIn.readInt();
+            } catch (EOFException e) {
+                return;
+            }
+            byte op = binIn.readByte();
+
+            if (op == OP_REPLY) {
+                byte[] text = new byte[len - 1];
+                binIn.readFully(text);
+                String reply = new String(text, StandardCharsets.UTF_8);
+                if (reply.startsWith("OK JOINED ")) {
+                    palette = colorsOf(reply, 7); // color ids now refer to this board
+                    joinReplied();
+                } else if (isJoinError(reply)) {
+                    joinReplied();
+                }
+                listener.onMessage(reply);
+
+            } else if (op == OP_EVENT) {
+                // Pushed after SUBSCRIBE; one frame may hold several lines (SHAKE)
+                byte[] text = new byte[len - 1];
+                binIn.readFully(text);
+                for (String line : new String(text, StandardCharsets.UTF_8).split("\n")) {
+                    listener.onMessage(line);
+                }
+
+            } else if (op == OP_NOTES) {
+                // Header comes after the notes are known: OK <count> [NEXT <cursor>],
+                // or OK STREAM ... END <count> [NEXT <cursor>] across several frames
+                int count = binIn.readInt();
+                String[] palette = this.palette;
+                String[] lines = new String[count];
+                for (int i = 0; i < count; i++) {
+                    int x = binIn.readInt();
+                    int y = binIn.readInt();
+                    int colorId = binIn.readInt();
+                    boolean pinned = binIn.readByte() != 0;
+                    byte[] msg = new byte[binIn.readInt()];
+                    binIn.readFully(msg);
+                    String color = colorId < palette.length ? palette[colorId] : String.valueOf(colorId);
+                    lines[i] = "NOTE " + x + " " + y + " " + color + " "
+                            + new String(msg, StandardCharsets.UTF_8) + " PINNED=" + pinned;
+                }
+                int next = binIn.readInt();
+                String cursor = (next >= 0) ? " NEXT " + next : "";
+
+                if (next == STREAM_MORE || streamed >= 0) {
+                    if (streamed < 0) {
+                        listener.onMessage("OK STREAM");
+                        streamed = 0;
+                    }
+                    for (String line : lines) listener.onMessage(line);
+                    streamed += count;
+                    if (next != STREAM_MORE) {
+                        listener.onMessage("END " + streamed + cursor);
+                        streamed = -1;
+                    }
+                } else {
+                    listener.onMessage("OK " + count + cursor);
+                    for (String line : lines) listener.onMessage(line);
+                }
+
+            } else if (op == OP_PINS) {
+                int count = binIn.readInt();
+                listener.onMessage("OK " + count);
+                for (int i = 0; i < count; i++) {
+                    listener.onMessage("PIN " + binIn.readInt() + " " + binIn.readInt());
+                }
+
+            } else {
+                binIn.skipBytes(len - 1); // unknown frame type
+            }
+        }
+    }
+
     // Interface so GUI can receive messages
     public interface ServerListener {
         void onMessage(String msg);
     }
-}
\ No newline at end of file
+}
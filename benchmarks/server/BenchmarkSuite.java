@@ -0,0 +1,57 @@
+package server;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Runs every benchmark and leaves JMH's JSON results in one directory:
+ *
+ *   single.json     board operations, queries, POST and SHAKE on one thread
+ *   parser.json     the protocol handler, with the GC profiler's allocation rates
+ *   threads-N.json  locks, multiple boards and the write-ahead log on N threads
+ *
+ * Usage: java -cp benchmarks.jar server.BenchmarkSuite [resultDir] [threads ...]
+ * (defaults: "results" and 1 8 64). A full run takes a few hours; to run a
+ * single benchmark use the jar's own main (java -jar benchmarks.jar -h).
+ */
+public final class BenchmarkSuite {
+
+    private BenchmarkSuite() {
+    }
+
+    public static void main(String[] args) throws IOException, RunnerException {
+        Path dir = Paths.get(args.length > 0 ? args[0] : "results");
+        int[] threads = (args.length > 1)
+                ? Arrays.stream(args, 1, args.length).mapToInt(Integer::parseInt).toArray()
+                : new int[] { 1, 8, 64 };
+        Files.createDirectories(dir);
+
+        run(dir.resolve("single.json"), 1, false,
+                BoardBenchmark.class, QueryBenchmark.class, PostBenchmark.class, ShakeBenchmark.class);
+        run(dir.resolve("parser.json"), 1, true, ParserBenchmark.class);
+        for (int t : threads) {
+            run(dir.resolve("threads-" + t + ".json"), t, false,
+                    LockBenchmark.class, MultiBoardBenchmark.class, WalBenchmark.class);
+        }
+    }
+
+    private static void run(Path result, int threads, boolean gc, Class<?>... benchmarks) throws RunnerException {
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .threads(threads)
+                .result(result.toString())
+                .resultFormat(ResultFormatType.JSON);
+        for (Class<?> c : benchmarks) options.include("^" + c.getName().replace(".", "\\.") + "\\.");
+        if (gc) options.addProfiler(GCProfiler.class);
+        new Runner(options.build()).run();
+    }
+}
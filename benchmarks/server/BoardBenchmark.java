@@ -0,0 +1,74 @@
+package server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PIN / UNPIN and GET PINS on boards of 1k to 1M notes with different pin
+ * densities (pins per note), for both note stores.
+ *
+ * pinUnpin pins a random point inside a random note and unpins it again, so
+ * the board stays the same size however long the benchmark runs. The board is
+ * shared: with -t N every thread works on it at once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoardBenchmark {
+
+    @Param({ "1000", "100000", "1000000" })
+    public int notes;
+
+    @Param({ "0", "0.1", "0.5" })
+    public double pinDensity;
+
+    // NoteStore.Kind by name: JMH's generated code cannot see package-private enums
+    @Param({ "OBJECT", "COMPACT" })
+    public String store;
+
+    private BoardFixture fixture;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        fixture = new BoardFixture(notes, pinDensity, NoteStore.Kind.valueOf(store), BoardLock.Strategy.MONITOR, 42);
+    }
+
+    @Benchmark
+    public String pinUnpin() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int k = random.nextInt(fixture.count);
+        int x = fixture.xs[k] + random.nextInt(BoardFixture.NOTE), y = fixture.ys[k] + random.nextInt(BoardFixture.NOTE);
+        fixture.board.pin(x, y);
+        return fixture.board.unpin(x, y);
+    }
+
+    // UNPIN where there is a note but no pin: the ERROR PIN_NOT_FOUND path
+    @Benchmark
+    public String unpinMissing() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int k = random.nextInt(fixture.count);
+        return fixture.board.unpin(fixture.xs[k] + BoardFixture.NOTE - 1, fixture.ys[k] + BoardFixture.NOTE - 1);
+    }
+
+    @Benchmark
+    public List<SharedBboard.Pin> getPins() {
+        return fixture.board.getPinsSnapshot();
+    }
+}
@@ -0,0 +1,58 @@
+package server;
+
+import java.util.SplittableRandom;
+
+/**
+ * A board filled with random notes (and optionally pins) for the benchmarks.
+ *
+ * The board is 10000 x 10000 with 10 x 10 notes, so even a million notes have
+ * room without complete overlaps dominating. Messages are "note-<i> topic-<k>"
+ * with 1000 topics, so a refersTo=topic-<k> search matches about 1% of the
+ * notes. The same seed always builds the same board.
+ */
+final class BoardFixture {
+
+    static final int BOARD = 10_000;
+    static final int NOTE = 10;
+    static final String[] COLORS = { "red", "green", "blue", "yellow" };
+    static final int TOPICS = 1000;
+
+    final SharedBboard board;
+
+    // Top-left corners of the notes that made it onto the board
+    final int[] xs, ys;
+    final int count;
+
+    BoardFixture(int notes, double pinDensity, NoteStore.Kind store, BoardLock.Strategy lock, long seed) {
+        this(new SharedBboard(BOARD, BOARD, NOTE, NOTE, COLORS, lock, store), notes, pinDensity, seed);
+    }
+
+    // Fill an existing (empty) board set up with BOARD, NOTE and COLORS
+    BoardFixture(SharedBboard board, int notes, double pinDensity, long seed) {
+        this.board = board;
+        this.xs = new int[notes];
+        this.ys = new int[notes];
+
+        SplittableRandom random = new SplittableRandom(seed);
+        int n = 0;
+        for (int i = 0; i < notes; i++) {
+            int x = random.nextInt(BOARD - NOTE + 1), y = random.nextInt(BOARD - NOTE + 1);
+            if (!board.post(x, y, i % COLORS.length, message(i)).startsWith("OK")) continue;
+            xs[n] = x;
+            ys[n] = y;
+            n++;
+        }
+        this.count = n;
+
+        // pinDensity = pins per note, each at a random point inside a random note
+        long pins = Math.round(n * pinDensity);
+        for (long i = 0; i < pins; i++) {
+            int k = random.nextInt(n);
+            board.pin(xs[k] + random.nextInt(NOTE), ys[k] + random.nextInt(NOTE));
+        }
+    }
+
+    static String message(int i) {
+        return "note-" + i + " topic-" + (i % TOPICS);
+    }
+}
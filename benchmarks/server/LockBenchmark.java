@@ -0,0 +1,86 @@
+package server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The three --lock strategies under contention, on one board of 100k notes
+ * with a pin for every tenth note.
+ *
+ * read is GET contains=<point> and write a PIN / UNPIN pair; run them with
+ * -t 1, 8 and 64 (BenchmarkSuite does) to see how each lock scales. mixed
+ * puts seven readers next to one writer in every group of eight threads, the
+ * read-mostly load the read-write and stamped locks are meant for.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LockBenchmark {
+
+    @Param({ "MONITOR", "RW", "STAMPED" })
+    public String lock;
+
+    @Param({ "100000" })
+    public int notes;
+
+    private BoardFixture fixture;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        fixture = new BoardFixture(notes, 0.1, NoteStore.Kind.OBJECT, BoardLock.Strategy.valueOf(lock), 42);
+    }
+
+    @Benchmark
+    public List<SharedBboard.NoteView> read() {
+        return query();
+    }
+
+    @Benchmark
+    public String write() {
+        return pinUnpin();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(7)
+    public List<SharedBboard.NoteView> mixedRead() {
+        return query();
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public String mixedWrite() {
+        return pinUnpin();
+    }
+
+    private List<SharedBboard.NoteView> query() {
+        int k = ThreadLocalRandom.current().nextInt(fixture.count);
+        return fixture.board.queryNotes(null, fixture.xs[k] + BoardFixture.NOTE / 2, fixture.ys[k] + BoardFixture.NOTE / 2, null);
+    }
+
+    private String pinUnpin() {
+        int k = ThreadLocalRandom.current().nextInt(fixture.count);
+        fixture.board.pin(fixture.xs[k], fixture.ys[k]);
+        return fixture.board.unpin(fixture.xs[k], fixture.ys[k]);
+    }
+}
@@ -0,0 +1,82 @@
+package server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Many clients on one board versus spread over many (JOIN).
+ *
+ * Every board holds 10k notes and 1k pins. Thread i works on board
+ * i % boards, so with boards=64 and -t 64 no two threads share a board lock
+ * and throughput should grow with the cores, while boards=1 serializes all
+ * writers on one lock.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MultiBoardBenchmark {
+
+    static final int NOTES = 10_000;
+
+    @Param({ "1", "64" })
+    public int boards;
+
+    private BoardFixture[] fixtures;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SharedBboard main = new SharedBboard(BoardFixture.BOARD, BoardFixture.BOARD, BoardFixture.NOTE, BoardFixture.NOTE,
+                BoardFixture.COLORS, BoardLock.Strategy.MONITOR, NoteStore.Kind.OBJECT);
+        BoardRegistry registry = new BoardRegistry(main, BoardLock.Strategy.MONITOR, NoteStore.Kind.OBJECT, boards);
+
+        fixtures = new BoardFixture[boards];
+        fixtures[0] = new BoardFixture(main, NOTES, 0.1, 0);
+        for (int i = 1; i < boards; i++) {
+            fixtures[i] = new BoardFixture(registry.getOrCreate("board-" + i), NOTES, 0.1, i);
+        }
+    }
+
+    // The board one benchmark thread works on
+    @State(Scope.Thread)
+    public static class Client {
+        BoardFixture fixture;
+
+        @Setup(Level.Trial)
+        public void setUp(MultiBoardBenchmark bench, ThreadParams thread) {
+            fixture = bench.fixtures[thread.getThreadIndex() % bench.boards];
+        }
+    }
+
+    @Benchmark
+    public String pinUnpin(Client client) {
+        BoardFixture f = client.fixture;
+        int k = ThreadLocalRandom.current().nextInt(f.count);
+        f.board.pin(f.xs[k], f.ys[k]);
+        return f.board.unpin(f.xs[k], f.ys[k]);
+    }
+
+    @Benchmark
+    public List<SharedBboard.NoteView> query(Client client) {
+        BoardFixture f = client.fixture;
+        int k = ThreadLocalRandom.current().nextInt(f.count);
+        return f.board.queryNotes(null, f.xs[k] + BoardFixture.NOTE / 2, f.ys[k] + BoardFixture.NOTE / 2, null);
+    }
+}
@@ -0,0 +1,100 @@
+package server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The protocol handler without the network: CommandParser on text lines,
+ * BinaryCodec on frames, and CommandProcessor running whole PIN / UNPIN
+ * requests into a discarding writer. Run with -prof gc to see the bytes
+ * allocated per request; parsing a PIN line should allocate nothing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+    private static final byte[] POST = line("POST 120 340 green Meeting at noon in room topic-7");
+    private static final byte[] PIN = line("PIN 125 345");
+    private static final byte[] UNPIN = line("UNPIN 125 345");
+    private static final byte[] GET = line("GET color=blue contains=125 345 LIMIT 100 refersTo=topic-7");
+
+    private CommandParser parser;
+    private BinaryCodec codec;
+    private final Command cmd = new Command();
+    private byte[] postFrame;
+
+    private CommandProcessor processor;
+    private PrintWriter out;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        parser = new CommandParser(BoardFixture.COLORS);
+        codec = new BinaryCodec(BoardFixture.COLORS);
+
+        // [POST][int x][int y][int colorId][message]
+        byte[] msg = "Meeting at noon in room topic-7".getBytes(StandardCharsets.UTF_8);
+        postFrame = ByteBuffer.allocate(13 + msg.length)
+                .put(BinaryCodec.POST).putInt(120).putInt(340).putInt(1).put(msg)
+                .array();
+
+        SharedBboard board = new BoardFixture(10_000, 0.1, NoteStore.Kind.OBJECT, BoardLock.Strategy.MONITOR, 42).board;
+        BoardRegistry boards = new BoardRegistry(board, BoardLock.Strategy.MONITOR, NoteStore.Kind.OBJECT, 128);
+        processor = new CommandProcessor(boards, new ServerMetrics(), new RequestLog(RequestLog.Level.OFF, 0, 1024),
+                "bench", true);
+        out = new PrintWriter(Writer.nullWriter());
+    }
+
+    private static byte[] line(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public Command parsePost() {
+        parser.parse(POST, 0, POST.length, cmd);
+        return cmd;
+    }
+
+    @Benchmark
+    public Command parsePin() {
+        parser.parse(PIN, 0, PIN.length, cmd);
+        return cmd;
+    }
+
+    @Benchmark
+    public Command parseGet() {
+        parser.parse(GET, 0, GET.length, cmd);
+        return cmd;
+    }
+
+    @Benchmark
+    public Command decodePost() {
+        codec.decode(postFrame, 0, postFrame.length, cmd);
+        return cmd;
+    }
+
+    // Whole request: parse, lock, change, reply (the reply is thrown away)
+    @Benchmark
+    public boolean handlePinUnpin() {
+        processor.handle(PIN, 0, PIN.length, out);
+        return processor.handle(UNPIN, 0, UNPIN.length, out);
+    }
+}
@@ -0,0 +1,69 @@
+package server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * POST onto boards of 1k to 1M notes.
+ *
+ * Every POST adds a note, so a timed loop would grow the board it measures.
+ * Instead each iteration starts from a freshly built board and times one batch
+ * of BATCH posts at random corners: the score is milliseconds per batch. A few
+ * of them land on an existing corner and take the COMPLETE_OVERLAP path, as
+ * they would for real clients. Pin density matters because a new note counts
+ * the pins already inside it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, batchSize = PostBenchmark.BATCH)
+@Measurement(iterations = 5, batchSize = PostBenchmark.BATCH)
+@Fork(1)
+public class PostBenchmark {
+
+    static final int BATCH = 10_000;
+
+    @Param({ "1000", "100000", "1000000" })
+    public int notes;
+
+    @Param({ "0", "0.5" })
+    public double pinDensity;
+
+    @Param({ "OBJECT", "COMPACT" })
+    public String store;
+
+    private SharedBboard board;
+    private final int[] xs = new int[BATCH], ys = new int[BATCH];
+    private int next;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        board = new BoardFixture(notes, pinDensity, NoteStore.Kind.valueOf(store), BoardLock.Strategy.MONITOR, 42).board;
+
+        SplittableRandom random = new SplittableRandom(7);
+        for (int i = 0; i < BATCH; i++) {
+            xs[i] = random.nextInt(BoardFixture.BOARD - BoardFixture.NOTE + 1);
+            ys[i] = random.nextInt(BoardFixture.BOARD - BoardFixture.NOTE + 1);
+        }
+        next = 0;
+    }
+
+    @Benchmark
+    public String post() {
+        int i = next++ % BATCH;
+        return board.post(xs[i], ys[i], i % BoardFixture.COLORS.length, BoardFixture.message(notes + i));
+    }
+}
@@ -0,0 +1,96 @@
+package server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GET with every combination of filters, on boards of 1k to 1M notes.
+ *
+ * color= picks one of four colors (a quarter of the notes), contains= a point
+ * inside a random note, refersTo= a random topic (about 1% of the notes).
+ * "none" lists the whole board. getNotesFiltered is the plain listing,
+ * queryNotes adds the PINNED= flags, page is GET ... LIMIT 100.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class QueryBenchmark {
+
+    @Param({ "1000", "100000", "1000000" })
+    public int notes;
+
+    @Param({ "0", "0.5" })
+    public double pinDensity;
+
+    @Param({ "none", "color", "contains", "refersTo", "color+contains", "color+refersTo", "contains+refersTo", "all" })
+    public String filter;
+
+    @Param({ "OBJECT", "COMPACT" })
+    public String store;
+
+    private BoardFixture fixture;
+    private boolean byColor, byPoint, byText;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        fixture = new BoardFixture(notes, pinDensity, NoteStore.Kind.valueOf(store), BoardLock.Strategy.MONITOR, 42);
+        byColor = filter.equals("all") || filter.contains("color");
+        byPoint = filter.equals("all") || filter.contains("contains");
+        byText = filter.equals("all") || filter.contains("refersTo");
+    }
+
+    @Benchmark
+    public List<SharedBboard.Note> getNotesFiltered() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int k = random.nextInt(fixture.count);
+        return fixture.board.getNotesFiltered(color(random), x(k), y(k), text(random));
+    }
+
+    @Benchmark
+    public List<SharedBboard.NoteView> queryNotes() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int k = random.nextInt(fixture.count);
+        return fixture.board.queryNotes(color(random), x(k), y(k), text(random));
+    }
+
+    @Benchmark
+    public SharedBboard.Page page() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int k = random.nextInt(fixture.count);
+        return fixture.board.queryPage(color(random), x(k), y(k), text(random), 0, Integer.MAX_VALUE, 100);
+    }
+
+    private String color(ThreadLocalRandom random) {
+        return byColor ? BoardFixture.COLORS[random.nextInt(BoardFixture.COLORS.length)] : null;
+    }
+
+    // Middle of note k
+    private Integer x(int k) {
+        return byPoint ? fixture.xs[k] + BoardFixture.NOTE / 2 : null;
+    }
+
+    private Integer y(int k) {
+        return byPoint ? fixture.ys[k] + BoardFixture.NOTE / 2 : null;
+    }
+
+    private String text(ThreadLocalRandom random) {
+        return byText ? "topic-" + random.nextInt(BoardFixture.TOPICS) : null;
+    }
+}
@@ -0,0 +1,53 @@
+package server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SHAKE on a 10000 x 10000 board with 50k notes and 50k pins: every other
+ * note carries two pins, so half of the notes stay and half go. SHAKE changes
+ * the board, so each call gets a freshly built one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ShakeBenchmark {
+
+    @Param({ "50000" })
+    public int notes;
+
+    @Param({ "OBJECT", "COMPACT" })
+    public String store;
+
+    private SharedBboard board;
+
+    @Setup(Level.Invocation)
+    public void setUp() {
+        BoardFixture fixture = new BoardFixture(notes, 0, NoteStore.Kind.valueOf(store), BoardLock.Strategy.MONITOR, 42);
+        for (int k = 0; k < fixture.count; k += 2) {
+            fixture.board.pin(fixture.xs[k] + 1, fixture.ys[k] + 1);
+            fixture.board.pin(fixture.xs[k] + 2, fixture.ys[k] + 2);
+        }
+        board = fixture.board;
+    }
+
+    @Benchmark
+    public String shake() {
+        return board.shake();
+    }
+}
@@ -0,0 +1,68 @@
+package server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * PIN / UNPIN with the write-ahead log in each --durability mode, on a board
+ * of 10k notes. The log goes to a temporary directory, so the numbers depend
+ * on the disk under java.io.tmpdir; PER_OP in particular measures its fsync.
+ * With more threads (-t 8, -t 64) BATCHED shows how many writers one group
+ * commit covers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WalBenchmark {
+
+    @Param({ "NONE", "BATCHED", "PER_OP" })
+    public WriteAheadLog.Durability durability;
+
+    private BoardFixture fixture;
+    private WriteAheadLog log;
+    private Path dir;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        fixture = new BoardFixture(10_000, 0.1, NoteStore.Kind.OBJECT, BoardLock.Strategy.MONITOR, 42);
+        dir = Files.createTempDirectory("bboard-wal");
+        log = fixture.board.openLog(dir.resolve("log"), durability);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        log.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) Files.delete(p);
+        }
+    }
+
+    @Benchmark
+    public String pinUnpin() {
+        int k = ThreadLocalRandom.current().nextInt(fixture.count);
+        fixture.board.pin(fixture.xs[k], fixture.ys[k]);
+        return fixture.board.unpin(fixture.xs[k], fixture.ys[k]);
+    }
+}
@@ -3,6 +3,19 @@ package server;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 public class BBoard {
 
@@ -12,16 +25,103 @@ public class BBoard {
 
     public static void main(String[] args) {
 
+        // Step 0: Pull optional --name=value flags off the front of the args
+        Map<String, String> options = new HashMap<>();
+        int first = 0;
+        while (first < args.length && args[first].startsWith("--")) {
+            String opt = args[first].substring(2);
+            int eq = opt.indexOf('=');
+            if (eq < 0) options.put(opt, "true");
+            else options.put(opt.substring(0, eq), opt.substring(eq + 1));
+            first++;
+        }
+        args = Arrays.copyOfRange(args, first, args.length);
+
         // Step 1: Validate command-line args
         if (args.length < 6) {
-            System.out.println("Usage: java server.BBoard <port> <boardW> <boardH> <noteW> <noteH> <color1> [color2] ...");
+            System.out.println("Usage: java server.BBoard [options] <port> <boardW> <boardH> <noteW> <noteH> <color1> [color2] ...");
             System.out.println("Example: java server.BBoard 4554 200 100 20 10 red green blue");
+            System.out.println("Options:");
+            System.out.println("  --lock=monitor|rw|stamped   board locking strategy (default monitor)");
+            System.out.println("  --store=object|compact      note storage engine (default object)");
+            System.out.println("  --mode=threads|nio          thread per connection, or NIO event loops (default threads)");
+            System.out.println("  --loops=<n>                 NIO event loop threads (default: number of cores)");
+            System.out.println("  --threads=platform|virtual  threads mode: OS thread or virtual thread per connection (default platform)");
+            System.out.println("  --max-conns=<n>             open connections before replying SERVER_BUSY (default 0 = unlimited)");
+            System.out.println("  --workers=<n>               platform threads serving connections (default 0 = one per connection)");
+            System.out.println("  --queue=<n>                 connections waiting for a worker before SERVER_BUSY (default 64)");
+            System.out.println("  --backlog=<n>               TCP accept backlog (default 50)");
+            System.out.println("  --log-level=off|warn|info   server log level (default info)");
+            System.out.println("  --log-sample=<0..1>         fraction of requests logged at info (default 1)");
+            System.out.println("  --max-boards=<n>            boards clients may have in total, the main one included (default 128)");
+            System.out.println("  --max-join-size=<w>x<h>     largest board JOIN may create (default: the main board's size)");
+            System.out.println("  --follow=<host:port>        run as a read-only replica of the server at host:port");
+            System.out.println("  --wal=<file>                persist the main board's changes to log segments <file>.1, <file>.2, ... and replay them on startup");
+            System.out.println("  --durability=none|batched|per-op  when a logged change counts as saved (default batched)");
+            System.out.println("  --metrics-port=<port>       serve plain-text metrics at http://<host>:<port>/metrics (default 0 = off)");
+            System.out.println("  --snapshot-every=<seconds>  write <file>.snapshot and drop older log segments this often (default 0 = never)");
+            return;
+        }
+
+        BoardLock.Strategy lockStrategy;
+        try {
+            lockStrategy = BoardLock.parseStrategy(options.getOrDefault("lock", "monitor"));
+        } catch (IllegalArgumentException e) {
+            System.out.println("Error: --lock must be one of monitor, rw, stamped.");
+            return;
+        }
+
+        NoteStore.Kind storeKind;
+        try {
+            storeKind = NoteStore.parseKind(options.getOrDefault("store", "object"));
+        } catch (IllegalArgumentException e) {
+            System.out.println("Error: --store must be one of object, compact.");
+            return;
+        }
+
+        String mode = options.getOrDefault("mode", "threads").toLowerCase();
+        if (!mode.equals("threads") && !mode.equals("nio")) {
+            System.out.println("Error: --mode must be one of threads, nio.");
+            return;
+        }
+
+        String threads = options.getOrDefault("threads", "platform").toLowerCase();
+        if (!threads.equals("platform") && !threads.equals("virtual")) {
+            System.out.println("Error: --threads must be one of platform, virtual.");
+            return;
+        }
+
+        RequestLog.Level logLevel;
+        try {
+            logLevel = RequestLog.parseLevel(options.getOrDefault("log-level", "info"));
+        } catch (IllegalArgumentException e) {
+            System.out.println("Error: --log-level must be one of off, warn, info.");
+            return;
+        }
+
+        WriteAheadLog.Durability durability;
+        try {
+            durability = WriteAheadLog.parseDurability(options.getOrDefault("durability", "batched"));
+        } catch (IllegalArgumentException e) {
+            System.out.println("Error: --durability must be one of none, batched, per-op.");
             return;
         }
 
         // Step 2: Parse args into server config
-        int port;
+        int port, loops, maxConns, workers, queue, backlog, snapshotEvery, maxBoards, metricsPort;
+        int maxJoinW, maxJoinH;
+        double logSample;
         try {
+            logSample = Double.parseDouble(options.getOrDefault("log-sample", "1"));
+            snapshotEvery = Integer.parseInt(options.getOrDefault("snapshot-every", "0"));
+            maxBoards = Integer.parseInt(options.getOrDefault("max-boards", "128"));
+            metricsPort = Integer.parseInt(options.getOrDefault("metrics-port", "0"));
+            loops    = Integer.parseInt(options.getOrDefault("loops",
+                          String.valueOf(Runtime.getRuntime().availableProcessors())));
+            maxConns = Integer.parseInt(options.getOrDefault("max-conns", "0"));
+            workers  = Integer.parseInt(options.getOrDefault("workers", "0"));
+            queue    = Integer.parseInt(options.getOrDefault("queue", "64"));
+            backlog  = Integer.parseInt(options.getOrDefault("backlog", "50"));
             port   = Integer.parseInt(args[0]);
             boardW = Integer.parseInt(args[1]);
             boardH = Integer.parseInt(args[2]);
@@ -33,43 +133,173 @@ public class BBoard {
                 colors[i - 5] = args[i].toLowerCase();
             }
 
+            String[] joinSize = options.getOrDefault("max-join-size", boardW + "x" + boardH).split("x");
+            if (joinSize.length != 2) throw new NumberFormatException();
+            maxJoinW = Integer.parseInt(joinSize[0]);
+            maxJoinH = Integer.parseInt(joinSize[1]);
+
         } catch (NumberFormatException e) {
-            System.out.println("Error: port/boardW/boardH/noteW/noteH/maxNotes must be integers.");
+            System.out.println("Error: port/boardW/boardH/noteW/noteH and numeric options must be integers.");
             return;
         }
 
         // Step 3: Print config to confirm everything parsed correctly
         System.out.println("Config:");
         System.out.println("port=" + port + ", board=" + boardW + "x" + boardH +
-                ", note=" + noteW + "x" + noteH );
+                ", note=" + noteW + "x" + noteH + ", lock=" + lockStrategy.name().toLowerCase() +
+                ", store=" + storeKind.name().toLowerCase());
 
         System.out.print("colors=");
         for (int i = 0; i < colors.length; i++) {
             System.out.print(colors[i] + (i == colors.length - 1 ? "\n" : ", "));
         }
         //Add Sharedboard to manage notes and pins across all clients
-        SharedBboard sharedBoard = new SharedBboard(boardW, boardH, noteW, noteH, colors);
-        
+        SharedBboard sharedBoard;
+        try {
+            sharedBoard = new SharedBboard(boardW, boardH, noteW, noteH, colors, lockStrategy, storeKind);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Error: " + e.getMessage());
+            return;
+        }
+
+        // Read replica: the main board is copied from a leader instead of a local log
+        String follow = options.get("follow");
+        String leaderHost = null;
+        int leaderPort = 0;
+        if (follow != null) {
+            int colon = follow.lastIndexOf(':');
+            try {
+                leaderHost = follow.substring(0, colon);
+                leaderPort = Integer.parseInt(follow.substring(colon + 1));
+            } catch (RuntimeException e) {
+                System.out.println("Error: --follow must be <host:port>.");
+                return;
+            }
+            if (options.containsKey("wal")) {
+                System.out.println("Error: --follow and --wal cannot be combined (a replica copies its leader).");
+                return;
+            }
+        }
+
+        // Event loops run commands inline, so a change must not wait for an fsync there
+        if (mode.equals("nio") && options.containsKey("wal") && durability != WriteAheadLog.Durability.NONE) {
+            System.out.println("Error: --mode=nio needs --durability=none with --wal (waiting for the disk would stall the event loop).");
+            return;
+        }
+
+        // Connection, traffic and command counters shared by the accept loop and all handlers
+        ServerMetrics metrics = new ServerMetrics();
+
+        // Asynchronous server log (per-request entries are sampled)
+        RequestLog log = new RequestLog(logLevel, logSample, 64 * 1024);
+
+        // Rebuild the board from its snapshot and write-ahead log, if one is configured
+        String walPath = options.get("wal");
+        if (walPath != null) {
+            try {
+                long start = System.nanoTime();
+                WriteAheadLog wal = sharedBoard.openLog(Paths.get(walPath), durability);
+                System.out.println("Loaded " + sharedBoard.noteCount() + " notes from " + walPath
+                        + " (" + wal.replayedRecords() + " log records replayed) in "
+                        + (System.nanoTime() - start) / 1_000_000 + " ms (durability="
+                        + durability.name().toLowerCase().replace('_', '-') + ")");
+
+                if (snapshotEvery > 0) startSnapshots(sharedBoard, snapshotEvery, log);
+
+                // Push out anything still buffered (matters for durability=none)
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    try { wal.close(); } catch (IOException ignored) {}
+                }));
+            } catch (IOException e) {
+                System.out.println("Error: cannot open log " + walPath + ": " + e.getMessage());
+                return;
+            }
+        }
+
+        // The command-line board is "main"; JOIN adds more (kept in memory only)
+        BoardRegistry boards = new BoardRegistry(sharedBoard, lockStrategy, storeKind, maxBoards, maxJoinW, maxJoinH);
+
+        if (follow != null) {
+            Follower follower = new Follower(leaderHost, leaderPort, sharedBoard, log);
+            boards.follow(follower);
+            Thread t = new Thread(follower, "follower");
+            t.setDaemon(true);
+            t.start();
+            System.out.println("Following leader " + follower.leader() + " (read-only replica)");
+        }
+
+        if (metricsPort > 0) {
+            try {
+                MetricsEndpoint.start(metricsPort, metrics, boards, log);
+                System.out.println("Metrics at http://localhost:" + metricsPort + "/metrics");
+            } catch (IOException e) {
+                System.out.println("Error: cannot serve metrics on port " + metricsPort + ": " + e.getMessage());
+                return;
+            }
+        }
+
+        // Step 4 (NIO mode): event loops serve every connection
+        if (mode.equals("nio")) {
+            try {
+                new NioServer(port, backlog, loops, maxConns, metrics, log, boards).run();
+            } catch (IOException e) {
+                System.out.println("Server error: " + e.getMessage());
+            }
+            return;
+        }
+
+        // Threads mode: every connection runs as its own task on this executor
+        ExecutorService connections = newConnectionExecutor(threads, workers, queue);
+        ThreadFactory pushThreads = newPushThreadFactory(threads);
+        int workerLimit = (workers > 0 && threads.equals("platform")) ? workers : Integer.MAX_VALUE;
+        if (connections == null) {
+            System.out.println("Error: virtual threads need Java 21 or newer.");
+            return;
+        }
+
         // Step 4: Start server socket + accept clients forever
-        try (ServerSocket serverSocket = new ServerSocket(port)) {
+        try (ServerSocket serverSocket = new ServerSocket(port, backlog)) {
 
-            System.out.println("Server listening on port " + port);
+            System.out.println("Server listening on port " + port + " (" + threads + " threads)");
 
             while (true) {
                 Socket clientSocket = serverSocket.accept();
-                System.out.println(
-                    "Client connected: " + clientSocket.getRemoteSocketAddress()
-                );
-
-                ClientHandler handler = new ClientHandler(
-                    clientSocket,
-                    boardW, boardH,
-                    noteW, noteH,
-                    colors,
-                    sharedBoard
-                );
-
-                handler.start(); // run ClientHandler in its own thread
+                log.info(String.valueOf(clientSocket.getRemoteSocketAddress()), "Client connected");
+
+                // Admission control: too many open connections
+                if (!metrics.tryOpenConnection(maxConns)) {
+                    rejectBusy(clientSocket, metrics, log);
+                    continue;
+                }
+
+                ClientHandler handler;
+                try {
+                    handler = new ClientHandler(clientSocket, boards, metrics, log, pushThreads);
+                } catch (IOException e) {
+                    // Connection dropped before we could set up its streams
+                    metrics.connectionClosed();
+                    try { clientSocket.close(); } catch (IOException ignored) {}
+                    continue;
+                }
+
+                // Run ClientHandler on its own thread, or wait for a free worker
+                boolean waits = metrics.taskSubmitted(workerLimit);
+                try {
+                    connections.execute(() -> {
+                        metrics.taskStarted(waits);
+                        try {
+                            handler.run();
+                        } finally {
+                            metrics.taskFinished();
+                            metrics.connectionClosed();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // Every worker is busy and the queue is full
+                    metrics.taskRejected();
+                    metrics.connectionRejected();
+                    rejectBusy(clientSocket, metrics, log);
+                }
             }
 
         } 
@@ -77,4 +307,84 @@ public class BBoard {
             System.out.println("Server error: " + e.getMessage());
         }
     }
+
+    // Tell an overflow client the server is busy and hang up
+    private static void rejectBusy(Socket socket, ServerMetrics metrics, RequestLog log) {
+        log.warn(String.valueOf(socket.getRemoteSocketAddress()),
+                "Rejected SERVER_BUSY (" + metrics.connectionReport() + ")");
+        try {
+            socket.getOutputStream().write(
+                    (ClientHandler.SERVER_BUSY + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+        } catch (IOException ignored) {
+        } finally {
+            try { socket.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    // Platform mode: a fixed pool of 'workers' threads with a bounded wait queue,
+    // or one reused thread per connection when workers is 0.
+    // Virtual mode: one virtual thread per task, looked up reflectively so the server
+    // still builds on Java 17; returns null if virtual threads are not available.
+    private static ExecutorService newConnectionExecutor(String threads, int workers, int queue) {
+        if (!threads.equals("virtual")) {
+            if (workers <= 0) return Executors.newCachedThreadPool();
+
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                    workers, workers,
+                    60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(Math.max(1, queue)),
+                    new ThreadPoolExecutor.AbortPolicy());
+            pool.allowCoreThreadTimeOut(true);
+            return pool;
+        }
+
+        try {
+            return (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    // Threads that push SUBSCRIBE events: virtual ones in virtual mode, so many
+    // subscribers do not each cost an OS thread; daemon platform threads otherwise
+    private static ThreadFactory newPushThreadFactory(String threads) {
+        if (threads.equals("virtual")) {
+            try {
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                return (ThreadFactory) Class.forName("java.lang.Thread$Builder")
+                        .getMethod("factory")
+                        .invoke(builder);
+            } catch (ReflectiveOperationException e) {
+                // Not available: newConnectionExecutor() refuses virtual mode too
+            }
+        }
+        return r -> {
+            Thread t = new Thread(r);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    // Snapshot the board every 'seconds' on a background thread (skipped when nothing changed)
+    private static void startSnapshots(SharedBboard board, int seconds, RequestLog log) {
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "snapshot");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleWithFixedDelay(() -> {
+            try {
+                long start = System.nanoTime();
+                int notes = board.snapshot();
+                if (notes >= 0) {
+                    log.info(null, "Snapshot of " + notes + " notes written in "
+                            + (System.nanoTime() - start) / 1_000_000 + " ms");
+                }
+            } catch (IOException | RuntimeException e) {
+                log.warn(null, "Snapshot failed: " + e.getMessage());
+            }
+        }, seconds, seconds, TimeUnit.SECONDS);
+    }
 }
@@ -0,0 +1,277 @@
+package server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact binary framing, negotiated with "BINARY" after WELCOME.
+ *
+ * Every frame in either direction is [int length][byte opcode][payload], where
+ * length counts the opcode and payload. Integers are 4-byte big-endian
+ * (DataInputStream order), colors travel as their index in the WELCOME palette
+ * (an int, so palettes past 256 colors work) and text as raw UTF-8 running to
+ * the end of the frame.
+ *
+ * Client -> server:
+ *   POST   x y colorId message      PIN / UNPIN  x y
+ *   GET    flags [colorId] [x y] [limit] [after] [refersTo]
+ *          (flag bits: 1 color, 2 contains, 4 refersTo, 8 limit, 16 after, 32 stream)
+ *   GET_PINS, SHAKE, CLEAR, DISCONNECT, SUBSCRIBE, UNSUBSCRIBE  (no payload)
+ *   LINE   any text command line, answered in binary
+ *
+ * Server -> client:
+ *   REPLY  the one-line text reply ("OK NOTE_POSTED", "ERROR ...")
+ *   NOTES  count, then per note: x y colorId pinned(byte) messageLength message,
+ *          then the cursor of the next page (-1 = none). A streamed GET sends
+ *          NOTES frames with cursor MORE, closed by an empty one with the real cursor.
+ *   PINS   count, then per pin: x y
+ *   EVENT  a pushed board event, as its text lines ('\n'-separated)
+ */
+final class BinaryCodec {
+
+    // Request opcodes
+    static final byte POST = 1;
+    static final byte GET = 2;
+    static final byte GET_PINS = 3;
+    static final byte PIN = 4;
+    static final byte UNPIN = 5;
+    static final byte SHAKE = 6;
+    static final byte CLEAR = 7;
+    static final byte DISCONNECT = 8;
+    static final byte SUBSCRIBE = 9;
+    static final byte UNSUBSCRIBE = 10;
+    static final byte LINE = 15;
+
+    // Reply opcodes
+    static final byte REPLY = (byte) 0x80;
+    static final byte NOTES = (byte) 0x81;
+    static final byte PINS = (byte) 0x82;
+    static final byte EVENT = (byte) 0x83;
+
+    // GET flags
+    static final int FILTER_COLOR = 1;
+    static final int FILTER_CONTAINS = 2;
+    static final int FILTER_REFERS_TO = 4;
+    static final int FILTER_LIMIT = 8;
+    static final int FILTER_AFTER = 16;
+    static final int FILTER_STREAM = 32;
+
+    // NOTES cursor of every streamed frame but the last
+    static final int MORE = -2;
+
+    private final String[] palette;
+
+    // Outgoing frames for the current command; written to the socket in one go
+    private byte[] outBuf = new byte[4 * 1024];
+    private int outSize;
+    private int frameStart;
+
+    BinaryCodec(String[] palette) {
+        this.palette = palette;
+    }
+
+    /* =========================
+       Decoding requests
+       ========================= */
+
+    // Decode the frame body buf[off, off+len) (opcode first, length prefix already
+    // stripped) into cmd. LINE frames are not handled here: they go to the text parser.
+    void decode(byte[] buf, int off, int len, Command cmd) {
+        int end = off + len;
+        byte op = buf[off];
+        int p = off + 1;
+
+        switch (op) {
+            case POST:
+                cmd.reset(Command.Type.POST);
+                if (end - p < 13) { cmd.invalid("INVALID_FORMAT", "POST requires coordinates, color, and message"); return; }
+                cmd.x = getInt(buf, p);
+                cmd.y = getInt(buf, p + 4);
+                int colorId = getInt(buf, p + 8);
+                if (!checkPoint(cmd, "POST")) return;
+                if (colorId < 0 || colorId >= palette.length) { cmd.invalid("COLOR_NOT_SUPPORTED", String.valueOf(colorId)); return; }
+                cmd.colorId = colorId;
+                cmd.message = new String(buf, p + 12, end - p - 12, StandardCharsets.UTF_8);
+                return;
+
+            case PIN:
+            case UNPIN:
+                Command.Type type = (op == PIN) ? Command.Type.PIN : Command.Type.UNPIN;
+                cmd.reset(type);
+                if (end - p != 8) { cmd.invalid("INVALID_FORMAT", type + " requires x and y"); return; }
+                cmd.x = getInt(buf, p);
+                cmd.y = getInt(buf, p + 4);
+                checkPoint(cmd, type.name());
+                return;
+
+            case GET:
+                cmd.reset(Command.Type.GET);
+                decodeGet(buf, p, end, cmd);
+                return;
+
+            case GET_PINS: noArg(cmd, Command.Type.GET_PINS, p, end); return;
+            case SHAKE: noArg(cmd, Command.Type.SHAKE, p, end); return;
+            case CLEAR: noArg(cmd, Command.Type.CLEAR, p, end); return;
+            case DISCONNECT: noArg(cmd, Command.Type.DISCONNECT, p, end); return;
+            case SUBSCRIBE: noArg(cmd, Command.Type.SUBSCRIBE, p, end); return;
+            case UNSUBSCRIBE: noArg(cmd, Command.Type.UNSUBSCRIBE, p, end); return;
+
+            default:
+                cmd.reset(Command.Type.UNKNOWN);
+        }
+    }
+
+    private void decodeGet(byte[] buf, int p, int end, Command cmd) {
+        if (p >= end) { cmd.invalid("INVALID_FORMAT", "GET has invalid filter format"); return; }
+        int flags = buf[p++];
+
+        if ((flags & FILTER_COLOR) != 0) {
+            if (end - p < 4) { cmd.invalid("INVALID_FORMAT", "GET has invalid filter format"); return; }
+            int colorId = getInt(buf, p);
+            p += 4;
+            // An unknown color matches nothing, like an unknown color= name in text
+            cmd.colorFilter = (colorId >= 0 && colorId < palette.length) ? palette[colorId] : "";
+        }
+        if ((flags & FILTER_CONTAINS) != 0) {
+            if (end - p < 8) { cmd.invalid("INVALID_FORMAT", "GET contains requires x and y"); return; }
+            cmd.containsX = getInt(buf, p);
+            cmd.containsY = getInt(buf, p + 4);
+            p += 8;
+            if (cmd.containsX < 0 || cmd.containsY < 0) {
+                cmd.invalid("INVALID_FORMAT", "GET contains requires non-negative integer coordinates");
+                return;
+            }
+            cmd.hasContains = true;
+        }
+        if ((flags & FILTER_LIMIT) != 0) {
+            if (end - p < 4 || getInt(buf, p) <= 0) { cmd.invalid("INVALID_FORMAT", "GET LIMIT requires a positive integer"); return; }
+            cmd.limit = getInt(buf, p);
+            p += 4;
+        }
+        if ((flags & FILTER_AFTER) != 0) {
+            if (end - p < 4 || getInt(buf, p) < 0) { cmd.invalid("INVALID_FORMAT", "GET AFTER requires a cursor"); return; }
+            cmd.after = getInt(buf, p);
+            p += 4;
+        }
+        cmd.stream = (flags & FILTER_STREAM) != 0;
+
+        if ((flags & FILTER_REFERS_TO) != 0) {
+            cmd.refersTo = new String(buf, p, end - p, StandardCharsets.UTF_8);
+        } else if (p != end) {
+            cmd.invalid("INVALID_FORMAT", "GET has invalid filter format");
+        }
+    }
+
+    private static void noArg(Command cmd, Command.Type type, int p, int end) {
+        cmd.reset(type);
+        if (p != end) cmd.invalid("INVALID_FORMAT", type + " takes no arguments");
+    }
+
+    private static boolean checkPoint(Command cmd, String name) {
+        if (cmd.x >= 0 && cmd.y >= 0) return true;
+        cmd.invalid("INVALID_FORMAT", name + " requires non-negative integer coordinates");
+        return false;
+    }
+
+    private static int getInt(byte[] b, int p) {
+        return (b[p] << 24) | ((b[p + 1] & 0xFF) << 16) | ((b[p + 2] & 0xFF) << 8) | (b[p + 3] & 0xFF);
+    }
+
+    /* =========================
+       Encoding replies
+       ========================= */
+
+    void writeReply(String text) {
+        begin(REPLY);
+        putUtf8(text);
+        end();
+    }
+
+    void writeNotes(List<SharedBboard.NoteView> notes, int next) {
+        begin(NOTES);
+        putInt(notes.size());
+        for (SharedBboard.NoteView v : notes) {
+            SharedBboard.Note n = v.note;
+            putInt(n.x);
+            putInt(n.y);
+            putInt(n.colorId);
+            putByte(v.pinned ? 1 : 0);
+
+            // Length is patched in after the message is encoded
+            int lenAt = outSize;
+            putInt(0);
+            putUtf8(n.message);
+            setInt(lenAt, outSize - lenAt - 4);
+        }
+        putInt(next);
+        end();
+    }
+
+    void writePins(List<SharedBboard.Pin> pins) {
+        begin(PINS);
+        putInt(pins.size());
+        for (SharedBboard.Pin p : pins) {
+            putInt(p.x);
+            putInt(p.y);
+        }
+        end();
+    }
+
+    // One EVENT frame, written straight to 'out' (push thread; does not touch the reply buffer)
+    static void writeEvent(OutputStream out, String event) throws IOException {
+        byte[] text = event.getBytes(StandardCharsets.UTF_8);
+        int len = 1 + text.length;
+        out.write(new byte[] { (byte) (len >>> 24), (byte) (len >>> 16), (byte) (len >>> 8), (byte) len, EVENT });
+        out.write(text);
+    }
+
+    // Send the frames built so far and start over
+    void flushTo(OutputStream out) throws IOException {
+        out.write(outBuf, 0, outSize);
+        outSize = 0;
+    }
+
+    private void begin(byte op) {
+        frameStart = outSize;
+        putInt(0);
+        putByte(op);
+    }
+
+    private void end() {
+        setInt(frameStart, outSize - frameStart - 4);
+    }
+
+    private void ensure(int n) {
+        if (outSize + n > outBuf.length) {
+            outBuf = Arrays.copyOf(outBuf, Math.max(outBuf.length * 2, outSize + n));
+        }
+    }
+
+    private void putByte(int b) {
+        ensure(1);
+        outBuf[outSize++] = (byte) b;
+    }
+
+    private void putInt(int v) {
+        ensure(4);
+        setInt(outSize, v);
+        outSize += 4;
+    }
+
+    private void setInt(int at, int v) {
+        outBuf[at] = (byte) (v >>> 24);
+        outBuf[at + 1] = (byte) (v >>> 16);
+        outBuf[at + 2] = (byte) (v >>> 8);
+        outBuf[at + 3] = (byte) v;
+    }
+
+    private void putUtf8(String s) {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        ensure(b.length);
+        System.arraycopy(b, 0, outBuf, outSize, b.length);
+        outSize += b.length;
+    }
+}
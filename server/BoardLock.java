@@ -0,0 +1,129 @@
+package server;
+
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Locking strategy used by SharedBboard.
+ *
+ * MONITOR  - one exclusive lock for everything (same behavior as synchronized methods)
+ * RW       - ReentrantReadWriteLock, readers (GET) run concurrently
+ * STAMPED  - StampedLock, concurrent readers plus optimistic reads for tiny lookups
+ *
+ * Every lock method returns a stamp that must be handed back on unlock.
+ * SharedBboard wraps its lock in Timed, which records waits and write holds for STATS.
+ */
+abstract class BoardLock {
+
+    enum Strategy { MONITOR, RW, STAMPED }
+
+    static BoardLock create(Strategy strategy) {
+        switch (strategy) {
+            case RW:      return new ReadWrite();
+            case STAMPED: return new Stamped();
+            default:      return new Monitor();
+        }
+    }
+
+    // Parse a strategy name from the command line (monitor / rw / stamped)
+    static Strategy parseStrategy(String name) {
+        return Strategy.valueOf(name.trim().toUpperCase());
+    }
+
+    abstract long readLock();
+    abstract void unlockRead(long stamp);
+
+    abstract long writeLock();
+    abstract void unlockWrite(long stamp);
+
+    // Optimistic read: returns 0 when not supported, so validate() fails
+    long tryOptimisticRead() {
+        return 0;
+    }
+
+    boolean validate(long stamp) {
+        return false;
+    }
+
+    /* =========================
+       Implementations
+       ========================= */
+
+    private static final class Monitor extends BoardLock {
+        private final ReentrantLock lock = new ReentrantLock();
+
+        @Override long readLock() { lock.lock(); return 1; }
+        @Override void unlockRead(long stamp) { lock.unlock(); }
+        @Override long writeLock() { lock.lock(); return 1; }
+        @Override void unlockWrite(long stamp) { lock.unlock(); }
+    }
+
+    private static final class ReadWrite extends BoardLock {
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+        @Override long readLock() { lock.readLock().lock(); return 1; }
+        @Override void unlockRead(long stamp) { lock.readLock().unlock(); }
+        @Override long writeLock() { lock.writeLock().lock(); return 1; }
+        @Override void unlockWrite(long stamp) { lock.writeLock().unlock(); }
+    }
+
+    // Any strategy, plus how long callers wait to get the lock and how long the
+    // write lock is held (read holds overlap each other, so only their waits are
+    // timed). Two or three System.nanoTime() calls per acquisition.
+    static final class Timed extends BoardLock {
+        private final BoardLock inner;
+        final LatencyHistogram waits = new LatencyHistogram();
+        final LatencyHistogram holds = new LatencyHistogram();
+
+        // When the current writer got the lock (only touched while holding it)
+        private long writeSince;
+
+        Timed(BoardLock inner) {
+            this.inner = inner;
+        }
+
+        @Override
+        long readLock() {
+            long start = System.nanoTime();
+            long stamp = inner.readLock();
+            waits.record(System.nanoTime() - start);
+            return stamp;
+        }
+
+        @Override
+        void unlockRead(long stamp) {
+            inner.unlockRead(stamp);
+        }
+
+        @Override
+        long writeLock() {
+            long start = System.nanoTime();
+            long stamp = inner.writeLock();
+            writeSince = System.nanoTime();
+            waits.record(writeSince - start);
+            return stamp;
+        }
+
+        @Override
+        void unlockWrite(long stamp) {
+            holds.record(System.nanoTime() - writeSince);
+            inner.unlockWrite(stamp);
+        }
+
+        @Override long tryOptimisticRead() { return inner.tryOptimisticRead(); }
+        @Override boolean validate(long stamp) { return inner.validate(stamp); }
+    }
+
+    // Not reentrant: SharedBboard never takes the lock while already holding it
+    private static final class Stamped extends BoardLock {
+        private final StampedLock lock = new StampedLock();
+
+        @Override long readLock() { return lock.readLock(); }
+        @Override void unlockRead(long stamp) { lock.unlockRead(stamp); }
+        @Override long writeLock() { return lock.writeLock(); }
+        @Override void unlockWrite(long stamp) { lock.unlockWrite(stamp); }
+        @Override long tryOptimisticRead() { return lock.tryOptimisticRead(); }
+        @Override boolean validate(long stamp) { return stamp != 0 && lock.validate(stamp); }
+    }
+}
@@ -0,0 +1,166 @@
+package server;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The named boards hosted by one server; JOIN finds (or creates) boards here.
+ *
+ * Names are partitioned over a fixed set of shards, each a plain HashMap behind
+ * its own monitor, so lookups and creations for boards on different shards never
+ * wait for each other. Once a connection has its board it no longer touches the
+ * registry: every board has its own lock and state, so traffic on independent
+ * boards runs on as many cores as there are connection threads.
+ *
+ * The board given on the command line is registered as "main" and is the one
+ * every connection starts on. Boards are never removed.
+ *
+ * Clients create boards, so their size is capped: a JOIN-created board is at
+ * most maxBoardW x maxBoardH (the main board's size unless configured) and its
+ * point-lookup grid has no more cells than a board of that size with the main
+ * board's notes. Without the cell cap, tiny notes would give every board a grid
+ * of up to a million cells.
+ */
+public class BoardRegistry {
+
+    // Board every connection starts on
+    public static final String DEFAULT_BOARD = "main";
+
+    // Longest accepted board name
+    static final int MAX_NAME_LENGTH = 64;
+
+    private static final class Shard {
+        final Map<String, SharedBboard> boards = new HashMap<>();
+    }
+
+    private final Shard[] shards;
+    private final SharedBboard defaultBoard;
+
+    // How new boards are built (same engine choices as the default board)
+    private final BoardLock.Strategy lockStrategy;
+    private final NoteStore.Kind storeKind;
+
+    // Boards allowed in total, the default one included
+    private final int maxBoards;
+    private final AtomicInteger boardCount = new AtomicInteger(1);
+
+    // Largest board a client may create, and the most grid cells it may use
+    private final int maxBoardW, maxBoardH;
+    private final long maxCells;
+
+    // Set when this server is a read replica of another one (null = accepts changes)
+    private volatile Follower follower;
+
+    // New boards may be as large as the default one
+    public BoardRegistry(SharedBboard defaultBoard, BoardLock.Strategy lockStrategy,
+                         NoteStore.Kind storeKind, int maxBoards) {
+        this(defaultBoard, lockStrategy, storeKind, maxBoards, defaultBoard.boardWidth(), defaultBoard.boardHeight());
+    }
+
+    public BoardRegistry(SharedBboard defaultBoard, BoardLock.Strategy lockStrategy,
+                         NoteStore.Kind storeKind, int maxBoards, int maxBoardW, int maxBoardH) {
+        this.defaultBoard = defaultBoard;
+        this.lockStrategy = lockStrategy;
+        this.storeKind = storeKind;
+        this.maxBoards = maxBoards;
+        this.maxBoardW = maxBoardW;
+        this.maxBoardH = maxBoardH;
+        this.maxCells = NoteGrid.cellCount(maxBoardW, maxBoardH, defaultBoard.noteWidth(), defaultBoard.noteHeight());
+
+        // A power of two a few times the core count keeps shard collisions rare
+        int n = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 4 - 1)) << 1;
+        this.shards = new Shard[n];
+        for (int i = 0; i < n; i++) shards[i] = new Shard();
+        shard(DEFAULT_BOARD).boards.put(DEFAULT_BOARD, defaultBoard);
+    }
+
+    public SharedBboard defaultBoard() {
+        return defaultBoard;
+    }
+
+    // Make the main board a read replica fed by 'follower'
+    public void follow(Follower follower) {
+        this.follower = follower;
+    }
+
+    public Follower follower() {
+        return follower;
+    }
+
+    // Valid board name: 1-64 ASCII letters, digits, '-', '_' or '.'
+    static boolean isValidName(String name) {
+        if (name.isEmpty() || name.length() > MAX_NAME_LENGTH) return false;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            boolean ok = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '_' || c == '.';
+            if (!ok) return false;
+        }
+        return true;
+    }
+
+    // Whether clients may create a board with these sizes (see the class comment)
+    public boolean allowsSize(int boardW, int boardH, int noteW, int noteH) {
+        return boardW <= maxBoardW && boardH <= maxBoardH
+                && NoteGrid.cellCount(boardW, boardH, noteW, noteH) <= maxCells;
+    }
+
+    // "<maxBoardW>x<maxBoardH>, <maxCells> grid cells" (for error replies)
+    public String sizeLimit() {
+        return maxBoardW + "x" + maxBoardH + ", " + maxCells + " grid cells";
+    }
+
+    // Board called 'name', created with the default board's configuration if needed.
+    // Null if creating it would go over the board limit.
+    public SharedBboard getOrCreate(String name) {
+        return getOrCreate(name, defaultBoard.boardWidth(), defaultBoard.boardHeight(),
+                defaultBoard.noteWidth(), defaultBoard.noteHeight(), defaultBoard.palette());
+    }
+
+    // Board called 'name', created with this configuration if needed (an existing
+    // board keeps its own). Null if creating it would go over the board limit.
+    // Callers check allowsSize() for client-chosen sizes first.
+    public SharedBboard getOrCreate(String name, int boardW, int boardH, int noteW, int noteH, String[] colors) {
+        Shard shard = shard(name);
+        synchronized (shard) {
+            SharedBboard board = shard.boards.get(name);
+            if (board != null) return board;
+
+            if (boardCount.incrementAndGet() > maxBoards) {
+                boardCount.decrementAndGet();
+                return null;
+            }
+            try {
+                board = new SharedBboard(boardW, boardH, noteW, noteH, colors, lockStrategy, storeKind);
+            } catch (RuntimeException e) {
+                boardCount.decrementAndGet();
+                throw e;
+            }
+            shard.boards.put(name, board);
+            return board;
+        }
+    }
+
+    // Every board by name, sorted (a copy; for reports)
+    public Map<String, SharedBboard> boards() {
+        Map<String, SharedBboard> all = new TreeMap<>();
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                all.putAll(shard.boards);
+            }
+        }
+        return all;
+    }
+
+    // Number of boards hosted, the default one included
+    public int size() {
+        return boardCount.get();
+    }
+
+    private Shard shard(String name) {
+        int h = name.hashCode();
+        return shards[(h ^ (h >>> 16)) & (shards.length - 1)];
+    }
+}
@@ -0,0 +1,202 @@
+package server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Compact binary image of a board (notes with their pin counts, and pins),
+ * so a restart loads one file instead of replaying the whole log.
+ *
+ * SharedBboard copies its state under the read lock (an array copy per store
+ * column, or the note references) and rolls the log to a new segment at the
+ * same moment; the file is then written from the copy without any lock. It
+ * goes to a temp file that is forced and renamed over the old snapshot, so a
+ * crash leaves either the old or the new one. The snapshot records the first
+ * log segment it does not cover; only those segments are replayed after it.
+ *
+ * A leader sends the same image, built in memory, to a new follower (see Follower).
+ *
+ * Loading maps the file and fills the store directly: no per-record parsing
+ * beyond reading fixed-width fields, and pin counts are stored so they do not
+ * have to be recomputed.
+ *
+ * Layout (big-endian): magic, version, first log segment (long), board and note
+ * size, palette, last sequence number, note count, pin count, then per note
+ * x y colorId pinCount seq messageLength message, then the packed pins
+ * (long each), then a crc32 of everything before it. Version 1 stored colorId as
+ * a byte, which broke palettes of more than 256 colors; it is still read.
+ */
+final class BoardSnapshot {
+
+    private static final int MAGIC = 0x4242534E; // "BBSN"
+    private static final int VERSION = 2;
+
+    private final int boardW, boardH, noteW, noteH;
+    private final String[] palette;
+    private final NoteStore notes;
+    private final long[] pins;
+
+    // First log segment written after this image was taken
+    final long segment;
+
+    BoardSnapshot(int boardW, int boardH, int noteW, int noteH, String[] palette,
+                  NoteStore notes, long[] pins, long segment) {
+        this.boardW = boardW;
+        this.boardH = boardH;
+        this.noteW = noteW;
+        this.noteH = noteH;
+        this.palette = palette;
+        this.notes = notes;
+        this.pins = pins;
+        this.segment = segment;
+    }
+
+    // Snapshot file that goes with a log
+    static Path pathFor(Path log) {
+        return log.resolveSibling(log.getFileName() + ".snapshot");
+    }
+
+    int noteCount() {
+        return notes.size();
+    }
+
+    /* =========================
+       Writing
+       ========================= */
+
+    void write(Path file) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeTo(ch);
+            ch.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // The same image in memory (sent to a follower)
+    byte[] toBytes() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + notes.size() * 32);
+        writeTo(Channels.newChannel(bytes));
+        return bytes.toByteArray();
+    }
+
+    private void writeTo(WritableByteChannel ch) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20);
+
+        buf.putInt(MAGIC).putInt(VERSION).putLong(segment);
+        buf.putInt(boardW).putInt(boardH).putInt(noteW).putInt(noteH);
+        buf.putInt(palette.length);
+        for (String c : palette) {
+            byte[] b = c.getBytes(StandardCharsets.UTF_8);
+            buf.putInt(b.length).put(b);
+        }
+        buf.putInt(notes.lastSeq()).putInt(notes.size()).putInt(pins.length);
+
+        for (int id = 0; id < notes.size(); id++) {
+            byte[] m = notes.message(id).getBytes(StandardCharsets.UTF_8);
+            if (buf.remaining() < 24 + m.length) {
+                drain(ch, buf, crc);
+                if (buf.capacity() < 24 + m.length) buf = ByteBuffer.allocate(24 + m.length);
+            }
+            buf.putInt(notes.x(id)).putInt(notes.y(id)).putInt(notes.colorId(id))
+               .putInt(notes.pinCount(id)).putInt(notes.seq(id))
+               .putInt(m.length).put(m);
+        }
+        for (long key : pins) {
+            if (buf.remaining() < 8) drain(ch, buf, crc);
+            buf.putLong(key);
+        }
+        drain(ch, buf, crc);
+
+        buf.putInt((int) crc.getValue());
+        buf.flip();
+        while (buf.hasRemaining()) ch.write(buf);
+    }
+
+    private static void drain(WritableByteChannel ch, ByteBuffer buf, CRC32 crc) throws IOException {
+        buf.flip();
+        crc.update(buf.duplicate());
+        while (buf.hasRemaining()) ch.write(buf);
+        buf.clear();
+    }
+
+    /* =========================
+       Loading
+       ========================= */
+
+    // Fill an empty store and pin set from a snapshot file; returns the first log
+    // segment to replay after it. The board configuration must match.
+    static long read(Path file, int boardW, int boardH, int noteW, int noteH, String[] palette,
+                     NoteStore notes, LongHashSet pins) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size > Integer.MAX_VALUE) throw new IOException("Snapshot larger than 2 GB");
+            MappedByteBuffer in = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return read(in, boardW, boardH, noteW, noteH, palette, notes, pins);
+        }
+    }
+
+    // Same, from an image in memory (mapped file or received from a leader)
+    static long read(ByteBuffer in, int boardW, int boardH, int noteW, int noteH, String[] palette,
+                     NoteStore notes, LongHashSet pins) throws IOException {
+        int size = in.remaining();
+        if (size < 4) throw new IOException("Snapshot is truncated");
+
+        CRC32 crc = new CRC32();
+        ByteBuffer body = in.duplicate();
+        body.limit(body.position() + size - 4);
+        crc.update(body);
+        if ((int) crc.getValue() != in.getInt(in.position() + size - 4)) throw new IOException("Snapshot is corrupt");
+
+        if (in.getInt() != MAGIC) throw new IOException("Not a board snapshot");
+        int version = in.getInt();
+        if (version != 1 && version != VERSION) throw new IOException("Unsupported snapshot version " + version);
+        long segment = in.getLong();
+
+        boolean sameBoard = in.getInt() == boardW & in.getInt() == boardH
+                & in.getInt() == noteW & in.getInt() == noteH;
+        String[] saved = new String[in.getInt()];
+        byte[] scratch = new byte[256];
+        for (int i = 0; i < saved.length; i++) {
+            int len = in.getInt();
+            if (scratch.length < len) scratch = new byte[len];
+            in.get(scratch, 0, len);
+            saved[i] = new String(scratch, 0, len, StandardCharsets.UTF_8);
+        }
+        if (!sameBoard || !Arrays.equals(saved, palette)) {
+            throw new IOException("Snapshot was taken with a different board size or color list");
+        }
+
+        int lastSeq = in.getInt();
+        int noteCount = in.getInt();
+        int pinCount = in.getInt();
+
+        for (int i = 0; i < noteCount; i++) {
+            int x = in.getInt(), y = in.getInt();
+            int colorId = (version == 1) ? in.get() & 0xFF : in.getInt();
+            int pinned = in.getInt(), seq = in.getInt();
+            int len = in.getInt();
+            if (scratch.length < len) scratch = new byte[Math.max(len, scratch.length * 2)];
+            in.get(scratch, 0, len);
+            notes.load(x, y, colorId, scratch, 0, len, seq, pinned);
+        }
+        notes.restoreLastSeq(lastSeq);
+
+        for (int i = 0; i < pinCount; i++) pins.add(in.getLong());
+        return segment;
+    }
+}
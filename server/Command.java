@@ -0,0 +1,85 @@
+package server;
+
+/**
+ * One parsed protocol command. A connection reuses a single instance for every
+ * line, so parsing PIN/UNPIN/POST does not allocate per token.
+ * Only the fields relevant to 'type' are meaningful.
+ */
+final class Command {
+
+    enum Type { POST, GET, GET_PINS, PIN, UNPIN, SHAKE, CLEAR, DISCONNECT, BINARY, SUBSCRIBE, UNSUBSCRIBE, JOIN, REPLICATE, REPLICATION, BATCH, END, STATS, UNKNOWN, INVALID }
+
+    Type type;
+
+    // INVALID (or a malformed BATCH): the ERROR line to send back, and its code and
+    // text on their own ("ERROR <errorCode> <errorText>")
+    String error;
+    String errorCode;
+    String errorText;
+
+    // POST / PIN / UNPIN coordinates
+    int x, y;
+
+    // POST: palette id of the color (-1 if the color is not in the palette)
+    int colorId;
+
+    // POST: raw color token, only filled in when colorId is -1 (for the error reply)
+    String colorName;
+
+    // POST: message text
+    String message;
+
+    // GET filters (null / false = no filter)
+    String colorFilter;
+    boolean hasContains;
+    int containsX, containsY;
+    String refersTo;
+
+    // GET paging: page size (0 = no limit), cursor to continue after (0 = start),
+    // and whether to stream the listing in chunks
+    int limit;
+    int after;
+    boolean stream;
+
+    // JOIN: board name, and the configuration to create it with (colors null = server default)
+    String board;
+    int boardW, boardH, noteW, noteH;
+    String[] colors;
+
+    // BATCH: number of operations that follow (-1 if not given), and whether
+    // they apply all-or-nothing
+    int count;
+    boolean atomic;
+
+    void reset(Type type) {
+        this.type = type;
+        error = null;
+        errorCode = null;
+        errorText = null;
+        colorName = null;
+        message = null;
+        colorFilter = null;
+        hasContains = false;
+        refersTo = null;
+        limit = 0;
+        after = 0;
+        stream = false;
+        board = null;
+        colors = null;
+        count = -1;
+        atomic = false;
+        colorId = -1;
+    }
+
+    void invalid(String code, String text) {
+        this.type = Type.INVALID;
+        fail(code, text);
+    }
+
+    // Record an error without changing the type (a malformed BATCH is still a BATCH)
+    void fail(String code, String text) {
+        this.errorCode = code;
+        this.errorText = text;
+        this.error = text.isEmpty() ? "ERROR " + code : "ERROR " + code + " " + text;
+    }
+}
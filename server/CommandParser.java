@@ -0,0 +1,356 @@
+package server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Single-pass tokenizer for the text protocol.
+ *
+ * Works directly on the bytes of a line in the read buffer: no regex, no
+ * String per token, and integers are parsed by hand instead of through
+ * exceptions. Commands are case-insensitive (ASCII). Only the POST message
+ * (and GET filter text) becomes a String, because it has to be stored or
+ * compared anyway. Replies match the previous split()-based parser.
+ */
+final class CommandParser {
+
+    // Palette colors as UTF-8, indexed by color id
+    private final byte[][] palette;
+
+    // Current line and cursor
+    private byte[] buf;
+    private int pos, end;
+
+    // Bounds of the token found by nextToken()
+    private int tokStart, tokEnd;
+
+    CommandParser(String[] palette) {
+        this.palette = new byte[palette.length][];
+        for (int i = 0; i < palette.length; i++) {
+            this.palette[i] = palette[i].getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    // Whitespace as String.trim() sees it (space and ASCII control chars)
+    private static boolean isSpace(byte b) {
+        return b >= 0 && b <= ' ';
+    }
+
+    // Parse buf[off, off+len) into cmd. Returns false for a blank line.
+    boolean parse(byte[] buf, int off, int len, Command cmd) {
+        this.buf = buf;
+        this.pos = off;
+        this.end = off + len;
+
+        // Trim trailing whitespace (including '\r'); leading is skipped by nextToken()
+        while (end > pos && isSpace(buf[end - 1])) end--;
+
+        if (!nextToken()) return false;
+
+        if (tokenIs("POST")) parsePost(cmd);
+        else if (tokenIs("GET")) parseGet(cmd);
+        else if (tokenIs("PIN")) parsePoint(cmd, Command.Type.PIN, "PIN");
+        else if (tokenIs("UNPIN")) parsePoint(cmd, Command.Type.UNPIN, "UNPIN");
+        else if (tokenIs("SHAKE")) parseNoArg(cmd, Command.Type.SHAKE, "SHAKE");
+        else if (tokenIs("CLEAR")) parseNoArg(cmd, Command.Type.CLEAR, "CLEAR");
+        else if (tokenIs("DISCONNECT")) cmd.reset(Command.Type.DISCONNECT);
+        else if (tokenIs("BINARY")) parseNoArg(cmd, Command.Type.BINARY, "BINARY");
+        else if (tokenIs("SUBSCRIBE")) parseNoArg(cmd, Command.Type.SUBSCRIBE, "SUBSCRIBE");
+        else if (tokenIs("UNSUBSCRIBE")) parseNoArg(cmd, Command.Type.UNSUBSCRIBE, "UNSUBSCRIBE");
+        else if (tokenIs("JOIN")) parseJoin(cmd);
+        else if (tokenIs("REPLICATE")) parseNoArg(cmd, Command.Type.REPLICATE, "REPLICATE");
+        else if (tokenIs("REPLICATION")) parseNoArg(cmd, Command.Type.REPLICATION, "REPLICATION");
+        else if (tokenIs("BATCH")) parseBatch(cmd);
+        else if (tokenIs("END")) parseNoArg(cmd, Command.Type.END, "END");
+        else if (tokenIs("STATS")) parseNoArg(cmd, Command.Type.STATS, "STATS");
+        else cmd.reset(Command.Type.UNKNOWN);
+
+        return true;
+    }
+
+    /* =========================
+       Commands
+       ========================= */
+
+    // POST x y color message(with spaces)
+    private void parsePost(Command cmd) {
+        cmd.reset(Command.Type.POST);
+
+        // Need at least: POST x y color message
+        if (!nextToken()) { cmd.invalid("INVALID_FORMAT", "POST requires coordinates, color, and message"); return; }
+        int xs = tokStart, xe = tokEnd;
+        if (!nextToken()) { cmd.invalid("INVALID_FORMAT", "POST requires coordinates, color, and message"); return; }
+        int ys = tokStart, ye = tokEnd;
+        if (!nextToken()) { cmd.invalid("INVALID_FORMAT", "POST requires coordinates, color, and message"); return; }
+        int cs = tokStart, ce = tokEnd;
+
+        // Message is everything after the color (can contain spaces)
+        skipSpaces();
+        if (pos >= end) { cmd.invalid("INVALID_FORMAT", "POST requires coordinates, color, and message"); return; }
+        int ms = pos;
+
+        // x/y must be valid non-negative integers
+        int x = parseNonNegInt(xs, xe), y = parseNonNegInt(ys, ye);
+        if (x < 0 || y < 0) {
+            cmd.invalid("INVALID_FORMAT", "POST requires non-negative integer coordinates");
+            return;
+        }
+
+        cmd.x = x;
+        cmd.y = y;
+        cmd.colorId = findColor(cs, ce);
+        if (cmd.colorId < 0) cmd.colorName = new String(buf, cs, ce - cs, StandardCharsets.UTF_8);
+        cmd.message = new String(buf, ms, end - ms, StandardCharsets.UTF_8);
+    }
+
+    // PIN x y / UNPIN x y (exactly 3 tokens)
+    private void parsePoint(Command cmd, Command.Type type, String name) {
+        cmd.reset(type);
+
+        boolean ok = nextToken();
+        int xs = tokStart, xe = tokEnd;
+        ok = ok && nextToken();
+        int ys = tokStart, ye = tokEnd;
+        if (!ok || nextToken()) {
+            cmd.invalid("INVALID_FORMAT", name + " requires x and y");
+            return;
+        }
+
+        int x = parseNonNegInt(xs, xe), y = parseNonNegInt(ys, ye);
+        if (x < 0 || y < 0) {
+            cmd.invalid("INVALID_FORMAT", name + " requires non-negative integer coordinates");
+            return;
+        }
+        cmd.x = x;
+        cmd.y = y;
+    }
+
+    // SHAKE / CLEAR / BINARY / (UN)SUBSCRIBE / REPLICATE / REPLICATION / END / STATS take no arguments
+    private void parseNoArg(Command cmd, Command.Type type, String name) {
+        cmd.reset(type);
+        if (nextToken()) cmd.invalid("INVALID_FORMAT", name + " takes no arguments");
+    }
+
+    // BATCH <n> [ATOMIC]
+    // A malformed BATCH line still opens the batch (type BATCH with 'error' set), so
+    // the operations after it are collected and rejected at END instead of running
+    // one by one.
+    private void parseBatch(Command cmd) {
+        cmd.reset(Command.Type.BATCH);
+
+        int n = nextToken() ? parseNonNegInt(tokStart, tokEnd) : -1;
+        if (n <= 0) {
+            cmd.fail("INVALID_FORMAT", "BATCH requires a positive operation count");
+            return;
+        }
+        cmd.count = n;
+
+        if (nextToken()) {
+            if (!tokenIs("ATOMIC") || nextToken()) {
+                cmd.fail("INVALID_FORMAT", "BATCH takes an operation count and optionally ATOMIC");
+                return;
+            }
+            cmd.atomic = true;
+        }
+    }
+
+    // JOIN <board> [<boardW> <boardH> <noteW> <noteH> <color1> [color2] ...]
+    private void parseJoin(Command cmd) {
+        cmd.reset(Command.Type.JOIN);
+
+        if (!nextToken() || !BoardRegistry.isValidName(tokenString(0))) {
+            cmd.invalid("INVALID_FORMAT", "JOIN requires a board name (letters, digits, '-', '_', '.')");
+            return;
+        }
+        cmd.board = tokenString(0);
+        if (!nextToken()) return;
+
+        // Optional configuration, same order as the server's command line
+        int[] sizes = new int[4];
+        for (int i = 0; i < sizes.length; i++) {
+            if (i > 0 && !nextToken()) {
+                cmd.invalid("INVALID_FORMAT", "JOIN requires boardW boardH noteW noteH and colors");
+                return;
+            }
+            sizes[i] = parseNonNegInt(tokStart, tokEnd);
+            if (sizes[i] <= 0) {
+                cmd.invalid("INVALID_FORMAT", "JOIN requires positive board and note sizes");
+                return;
+            }
+        }
+        if (sizes[2] > sizes[0] || sizes[3] > sizes[1]) {
+            cmd.invalid("INVALID_FORMAT", "JOIN note size exceeds board size");
+            return;
+        }
+
+        List<String> colors = new ArrayList<>();
+        while (nextToken()) colors.add(tokenString(0).toLowerCase());
+        if (colors.isEmpty()) {
+            cmd.invalid("INVALID_FORMAT", "JOIN requires boardW boardH noteW noteH and colors");
+            return;
+        }
+
+        cmd.boardW = sizes[0];
+        cmd.boardH = sizes[1];
+        cmd.noteW = sizes[2];
+        cmd.noteH = sizes[3];
+        cmd.colors = colors.toArray(new String[0]);
+    }
+
+    // GET PINS
+    // OR
+    // GET color=<color> contains=<x> <y> LIMIT <n> AFTER <cursor> STREAM refersTo=<substring>
+    // (refersTo= takes the rest of the line, so it has to come last)
+    private void parseGet(Command cmd) {
+        cmd.reset(Command.Type.GET);
+
+        // Case 1: GET PINS (and nothing else)
+        int afterGet = pos;
+        if (nextToken() && tokenIs("PINS") && !nextToken()) {
+            cmd.reset(Command.Type.GET_PINS);
+            return;
+        }
+        pos = afterGet;
+
+        // Case 2: GET filters (missing criteria means "ALL")
+        while (nextToken()) {
+            if (tokenStartsWith("color=")) {
+                // Normalize to lowercase so color=BLUE works
+                cmd.colorFilter = tokenString("color=".length()).toLowerCase();
+
+            } else if (tokenStartsWith("contains=")) {
+                // contains=<x> <y>  (two tokens: contains= and y)
+                int xs = tokStart + "contains=".length(), xe = tokEnd;
+                if (!nextToken()) {
+                    cmd.invalid("INVALID_FORMAT", "GET contains requires x and y");
+                    return;
+                }
+
+                int x = parseNonNegInt(xs, xe), y = parseNonNegInt(tokStart, tokEnd);
+                if (x < 0 || y < 0) {
+                    cmd.invalid("INVALID_FORMAT", "GET contains requires non-negative integer coordinates");
+                    return;
+                }
+                cmd.hasContains = true;
+                cmd.containsX = x;
+                cmd.containsY = y;
+
+            } else if (tokenIs("LIMIT")) {
+                int n = nextToken() ? parseNonNegInt(tokStart, tokEnd) : -1;
+                if (n <= 0) {
+                    cmd.invalid("INVALID_FORMAT", "GET LIMIT requires a positive integer");
+                    return;
+                }
+                cmd.limit = n;
+
+            } else if (tokenIs("AFTER")) {
+                int c = nextToken() ? parseNonNegInt(tokStart, tokEnd) : -1;
+                if (c < 0) {
+                    cmd.invalid("INVALID_FORMAT", "GET AFTER requires a cursor");
+                    return;
+                }
+                cmd.after = c;
+
+            } else if (tokenIs("STREAM")) {
+                cmd.stream = true;
+
+            } else if (tokenStartsWith("refersTo=")) {
+                // refersTo consumes the rest of the line (tokens re-joined with single spaces)
+                StringBuilder r = new StringBuilder(tokenString("refersTo=".length()));
+                while (nextToken()) r.append(' ').append(tokenString(0));
+                cmd.refersTo = r.toString();
+                return;
+
+            } else {
+                cmd.invalid("INVALID_FORMAT", "GET has invalid filter format");
+                return;
+            }
+        }
+    }
+
+    /* =========================
+       Token helpers
+       ========================= */
+
+    private void skipSpaces() {
+        while (pos < end && isSpace(buf[pos])) pos++;
+    }
+
+    // Advance to the next whitespace-separated token; false at end of line
+    private boolean nextToken() {
+        skipSpaces();
+        if (pos >= end) return false;
+
+        tokStart = pos;
+        while (pos < end && !isSpace(buf[pos])) pos++;
+        tokEnd = pos;
+        return true;
+    }
+
+    // Case-insensitive (ASCII) match of the whole current token
+    private boolean tokenIs(String word) {
+        if (tokEnd - tokStart != word.length()) return false;
+        for (int i = 0; i < word.length(); i++) {
+            if (upper(buf[tokStart + i]) != word.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    // Case-sensitive prefix match of the current token
+    private boolean tokenStartsWith(String prefix) {
+        if (tokEnd - tokStart < prefix.length()) return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (buf[tokStart + i] != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private String tokenString(int skip) {
+        return new String(buf, tokStart + skip, tokEnd - tokStart - skip, StandardCharsets.UTF_8);
+    }
+
+    private static int upper(byte b) {
+        return (b >= 'a' && b <= 'z') ? b - 32 : b;
+    }
+
+    private static int lower(byte b) {
+        return (b >= 'A' && b <= 'Z') ? b + 32 : b;
+    }
+
+    // Palette id of buf[s, e) compared case-insensitively (ASCII), or -1
+    private int findColor(int s, int e) {
+        outer:
+        for (int id = 0; id < palette.length; id++) {
+            byte[] c = palette[id];
+            if (c.length != e - s) continue;
+            for (int i = 0; i < c.length; i++) {
+                if (lower(buf[s + i]) != c[i]) continue outer;
+            }
+            return id;
+        }
+        return -1;
+    }
+
+    // Non-negative int in buf[s, e) with Integer.parseInt's syntax, or -1 if invalid
+    private int parseNonNegInt(int s, int e) {
+        boolean negative = false;
+        if (s < e && (buf[s] == '+' || buf[s] == '-')) {
+            negative = buf[s] == '-';
+            s++;
+        }
+        if (s >= e) return -1;
+
+        long v = 0;
+        for (int i = s; i < e; i++) {
+            int d = buf[i] - '0';
+            if (d < 0 || d > 9) return -1;
+            v = v * 10 + d;
+            if (v > Integer.MAX_VALUE) return -1;
+        }
+
+        // "-0" is still zero; any other negative number is rejected
+        if (negative && v != 0) return -1;
+        return (int) v;
+    }
+}
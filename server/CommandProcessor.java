@@ -0,0 +1,595 @@
+package server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Text protocol for one client connection, independent of how the bytes travel.
+ * Both the thread-per-connection ClientHandler and the NIO event loops feed it
+ * one command line at a time and hand it the writer to answer on.
+ * After a successful BINARY command the connection speaks BinaryCodec frames
+ * instead, fed in through handleFrame(). BINARY, SUBSCRIBE and GET ... STREAM need
+ * a transport that owns its connection (ClientHandler); the NIO event loops refuse them.
+ * Every connection starts on the default board and can JOIN another one of the
+ * server's BoardRegistry.
+ * Between BATCH and END, POST / PIN / UNPIN lines (or frames) are collected
+ * without replies and applied together at END, under one board lock. DISCONNECT
+ * still closes the connection right away and drops an open batch.
+ */
+public class CommandProcessor {
+
+    // Boards hosted by this server
+    private final BoardRegistry boards;
+
+    // Board this client is on (the default board until it JOINs another one)
+    private SharedBboard board;
+    private String boardName = BoardRegistry.DEFAULT_BOARD;
+
+    // Server-wide counters (command latencies feed STATS)
+    private final ServerMetrics metrics;
+
+    // Server log and the client address used in its entries
+    private final RequestLog log;
+    private final String client;
+
+    // Where responses for the current command go
+    private PrintWriter out;
+    private OutputStream frameOut;
+
+    // Notes fetched per board read while streaming a GET
+    private static final int STREAM_CHUNK = 256;
+
+    // Set once the client sent DISCONNECT
+    private boolean disconnected;
+
+    // Whether this transport supports BINARY / SUBSCRIBE
+    private final boolean dedicated;
+
+    // Set once BINARY succeeded
+    private boolean binary;
+
+    // Board events for this client after SUBSCRIBE (null when not subscribed)
+    private Subscription subscription;
+
+    // Events a subscriber may fall behind by before it is told to RESYNC
+    private static final int SUBSCRIBE_QUEUE = 1024;
+
+    // REPLICATE: the feed this connection sends to a follower (null otherwise)
+    private SharedBboard.Replication replication;
+
+    // Change records a follower may fall behind by before the leader drops it
+    private static final int REPLICATION_QUEUE = 64 * 1024;
+
+    // BATCH in progress: operations collected so far (null when not in a batch)
+    private SharedBboard.Batch batch;
+    private int batchCount;      // operations announced by BATCH (-1 if malformed)
+    private int batchReceived;   // lines received since BATCH
+    private boolean batchAtomic;
+    private String batchError;   // first problem found; the batch is rejected at END
+
+    // Most operations one BATCH may carry
+    private static final int MAX_BATCH = 100_000;
+
+    // Reused for every line of this connection (parser and codec follow the board's palette)
+    private CommandParser parser;
+    private final Command cmd = new Command();
+    private BinaryCodec codec;
+
+    public CommandProcessor(BoardRegistry boards,
+                            ServerMetrics metrics,
+                            RequestLog log,
+                            String client,
+                            boolean dedicated) {
+        this.boards = boards;
+        this.metrics = metrics;
+        this.log = log;
+        this.client = client;
+        this.dedicated = dedicated;
+        useBoard(BoardRegistry.DEFAULT_BOARD, boards.defaultBoard());
+    }
+
+    // Handshake line: board + note dimensions plus the list of allowed colors
+    public String welcome() {
+        return "WELCOME " + boardConfig();
+    }
+
+    // "<boardW> <boardH> <noteW> <noteH> <color1> [color2] ..." of the current board
+    private String boardConfig() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(board.boardWidth()).append(" ")
+          .append(board.boardHeight()).append(" ")
+          .append(board.noteWidth()).append(" ")
+          .append(board.noteHeight());
+
+        // Add all valid colors (already lowercase)
+        for (String c : board.palette()) sb.append(" ").append(c);
+
+        return sb.toString();
+    }
+
+    // Run one command line (bytes straight from the read buffer) and write its
+    // response lines to 'out'. Returns false once the client asked to disconnect.
+    public boolean handle(byte[] buf, int off, int len, PrintWriter out) {
+        this.out = out;
+
+        // Ignore blank lines
+        if (!parser.parse(buf, off, len, cmd)) return true;
+
+        if (collects(cmd.type)) collect(cmd);
+        else run(cmd);
+        return !disconnected;
+    }
+
+    // Run one binary frame body (opcode + payload) and write the reply frames to 'out'.
+    // Returns false once the client asked to disconnect.
+    public boolean handleFrame(byte[] buf, int off, int len, OutputStream out) throws IOException {
+        if (len == 0) {
+            cmd.invalid("INVALID_FORMAT", "Empty frame");
+        } else if (buf[off] == BinaryCodec.LINE) {
+            // Text command carried in a frame; a blank one still gets a reply
+            if (!parser.parse(buf, off + 1, len - 1, cmd)) cmd.reset(Command.Type.UNKNOWN);
+        } else {
+            codec.decode(buf, off, len, cmd);
+        }
+
+        this.frameOut = out;
+        if (collects(cmd.type)) {
+            collect(cmd);
+            return true;
+        }
+        try {
+            run(cmd);
+        } catch (UncheckedIOException e) {
+            throw e.getCause(); // a streamed GET failed to write a chunk
+        }
+        codec.flushTo(out);
+        return !disconnected;
+    }
+
+    // True once BINARY succeeded: every following request is a frame
+    public boolean isBinary() {
+        return binary;
+    }
+
+    // The transport pushes this subscription's events to the client
+    public Subscription subscription() {
+        return subscription;
+    }
+
+    // Set once REPLICATE succeeded: the transport sends the copy and the change feed
+    SharedBboard.Replication replication() {
+        return replication;
+    }
+
+    // Connection closed: stop receiving board events and change records
+    public void close() {
+        if (subscription != null) {
+            board.unsubscribe(subscription);
+            subscription = null;
+        }
+        if (replication != null) {
+            board.stopReplicating(replication.feed);
+        }
+    }
+
+    private void run(Command cmd) {
+        // Every request is timed for STATS; only sampled ones get a log entry
+        boolean logged = log.sampleRequest();
+        long start = System.nanoTime();
+
+        // Handle the command and produce a response string (or null).
+        // The reply goes out in the mode the request came in ("OK BINARY" is still text).
+        boolean framed = binary;
+        String response = execute(cmd);
+
+        // Some commands like GET send multiple lines inside handleGET(),
+        // so they return null and we do NOT print here.
+        if (response != null) {
+            if (framed) codec.writeReply(response);
+            else out.println(response);
+        }
+
+        long nanos = System.nanoTime() - start;
+        metrics.commandDone(cmd.type, nanos, response != null && response.startsWith("ERROR"));
+        if (logged) log.request(client, cmd.type.name(), nanos, resultCode(response));
+    }
+
+    // Convenience for callers holding a String line
+    public boolean handle(String line, PrintWriter out) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        return handle(bytes, 0, bytes.length, out);
+    }
+
+    // "OK NOTE_POSTED" -> OK_NOTE_POSTED, "ERROR COLOR_NOT_SUPPORTED red" -> ERROR_COLOR_NOT_SUPPORTED.
+    // Multi-line replies (null) were successful listings.
+    private static String resultCode(String response) {
+        if (response == null) return "OK";
+
+        int first = response.indexOf(' ');
+        if (first < 0) return response;
+        int second = response.indexOf(' ', first + 1);
+        String code = (second < 0) ? response : response.substring(0, second);
+        return code.replace(' ', '_');
+    }
+
+    // This chooses which command handler to run
+    private String execute(Command cmd) {
+        // A read replica takes changes from its leader only
+        Follower follower = boards.follower();
+        if (follower != null && changesBoard(cmd.type)) {
+            return "ERROR REDIRECT " + follower.leader() + " This server is a read-only replica";
+        }
+
+        switch (cmd.type) {
+
+            // Parser already produced the error reply
+            case INVALID:
+                return cmd.error;
+
+            // POST x y color message...
+            case POST:
+                // Colors outside the palette go through the String path for the error reply
+                if (cmd.colorId < 0) return board.post(cmd.x, cmd.y, cmd.colorName, cmd.message);
+                return board.post(cmd.x, cmd.y, cmd.colorId, cmd.message);
+
+            // GET PINS
+            case GET_PINS:
+                return handleGetPins(); // prints multiple lines and returns null
+
+            // GET filters
+            case GET:
+                return handleGET(cmd); // prints multiple lines and returns null
+
+            // PIN x y
+            case PIN:
+                return board.pin(cmd.x, cmd.y);
+
+            // UNPIN x y
+            case UNPIN:
+                return board.unpin(cmd.x, cmd.y);
+
+            // SHAKE / CLEAR have no arguments (checked by the parser before running them)
+            case SHAKE:
+                return board.shake();
+
+            case CLEAR:
+                return board.clear();
+
+            // DISCONNECT closes this client gracefully
+            case DISCONNECT:
+                batch = null;        // an open BATCH is dropped, nothing of it applied
+                disconnected = true; // the connection closes it after the reply is sent
+                return "OK BYE";     // server tells client it is closing nicely
+
+            // BINARY switches the rest of the connection to binary frames
+            case BINARY:
+                if (binary) return "ERROR INVALID_FORMAT Already in binary mode";
+                if (!dedicated) return "ERROR UNSUPPORTED BINARY is not available in this server mode";
+                binary = true;
+                return "OK BINARY"; // last text line; sent before the switch
+
+            // SUBSCRIBE streams EVENT lines until UNSUBSCRIBE or disconnect
+            case SUBSCRIBE:
+                if (!dedicated) return "ERROR UNSUPPORTED SUBSCRIBE is not available in this server mode";
+                if (subscription != null) return "ERROR INVALID_FORMAT Already subscribed";
+                subscription = board.subscribe(SUBSCRIBE_QUEUE);
+                return "OK SUBSCRIBED";
+
+            case UNSUBSCRIBE:
+                if (subscription == null) return "ERROR INVALID_FORMAT Not subscribed";
+                close();
+                return "OK UNSUBSCRIBED";
+
+            // JOIN moves this client to another board
+            case JOIN:
+                return join(cmd);
+
+            // REPLICATE turns this connection into a change feed for a follower
+            case REPLICATE:
+                if (!dedicated) return "ERROR UNSUPPORTED REPLICATE is not available in this server mode";
+                if (binary) return "ERROR INVALID_FORMAT REPLICATE needs a text connection";
+                if (replication != null) return "ERROR INVALID_FORMAT Already replicating";
+                try {
+                    replication = board.replicate(REPLICATION_QUEUE);
+                } catch (IOException e) {
+                    return "ERROR REPLICATION_FAILED " + e.getMessage();
+                }
+                return "OK REPLICATE " + replication.position + " " + replication.image.length;
+
+            // BATCH <n> [ATOMIC] collects the next n operations; END applies them
+            case BATCH:
+                batch = new SharedBboard.Batch();
+                batchCount = cmd.count;
+                batchReceived = 0;
+                batchAtomic = cmd.atomic;
+                batchError = cmd.error;
+                if (batchError == null && batchCount > MAX_BATCH) {
+                    batchError = "ERROR INVALID_FORMAT BATCH is limited to " + MAX_BATCH + " operations";
+                }
+                return null; // the reply comes at END
+
+            case END:
+                return endBatch(follower);
+
+            // STATS reports the server's counters and this client's board
+            case STATS:
+                return handleStats(); // prints multiple lines and returns null
+
+            // REPLICATION reports this server's role and, on a follower, its lag
+            case REPLICATION:
+                if (follower != null) return "OK REPLICATION " + follower.report();
+                return "OK REPLICATION role=leader position=" + board.position()
+                        + " followers=" + board.followerCount();
+
+            // Anything else is invalid
+            default:
+                return "ERROR INVALID_FORMAT Unknown command";
+        }
+    }
+
+    // Whether a command goes into the open batch instead of running (END and
+    // DISCONNECT always run)
+    private boolean collects(Command.Type type) {
+        return batch != null && type != Command.Type.END && type != Command.Type.DISCONNECT;
+    }
+
+    // ---------------------------
+    // Lines between BATCH and END: only POST / PIN / UNPIN are accepted. Any other
+    // line, or a wrong count, rejects the whole batch at END (nothing is applied).
+    // ---------------------------
+    private void collect(Command cmd) {
+        int n = ++batchReceived;
+        if (batchError != null) return;
+
+        if (n > batchCount) {
+            batchError = "ERROR INVALID_FORMAT BATCH has more than " + batchCount + " operations";
+            return;
+        }
+        switch (cmd.type) {
+            case POST:
+                batch.post(cmd.x, cmd.y, cmd.colorId, cmd.colorName, cmd.message);
+                break;
+            case PIN:
+                batch.pin(cmd.x, cmd.y);
+                break;
+            case UNPIN:
+                batch.unpin(cmd.x, cmd.y);
+                break;
+            case INVALID:
+                // The operation's own message, with its code unless that is INVALID_FORMAT too
+                batchError = "ERROR INVALID_FORMAT BATCH operation " + n + ": "
+                        + (cmd.errorCode.equals("INVALID_FORMAT") ? cmd.errorText : cmd.error.substring("ERROR ".length()));
+                break;
+            default:
+                batchError = "ERROR INVALID_FORMAT BATCH operation " + n + ": only POST, PIN and UNPIN can be batched";
+        }
+    }
+
+    // END: apply the collected batch and reply with one summary line:
+    //   OK BATCH <applied> <failed> [<op>:<code> ...]   (failed operations, numbered from 1)
+    //   ERROR BATCH_ABORTED <op>:<code>                 (ATOMIC, nothing applied)
+    private String endBatch(Follower follower) {
+        if (batch == null) return "ERROR INVALID_FORMAT END without BATCH";
+
+        SharedBboard.Batch ops = batch;
+        batch = null;
+        if (batchError != null) return batchError;
+        if (batchReceived < batchCount) {
+            return "ERROR INVALID_FORMAT BATCH expected " + batchCount + " operations but got " + batchReceived;
+        }
+        if (follower != null) return "ERROR REDIRECT " + follower.leader() + " This server is a read-only replica";
+
+        SharedBboard.BatchResult result = board.applyBatch(ops, batchAtomic);
+        if (result.abortedAt >= 0) {
+            return "ERROR BATCH_ABORTED " + (result.abortedAt + 1) + ":" + errorCode(result.results[result.abortedAt]);
+        }
+        if (!result.persisted) return "ERROR LOG_WRITE_FAILED Batch applied but not persisted";
+
+        StringBuilder failures = new StringBuilder();
+        int failed = 0;
+        for (int i = 0; i < result.results.length; i++) {
+            if (result.results[i].startsWith("OK")) continue;
+            failures.append(' ').append(i + 1).append(':').append(errorCode(result.results[i]));
+            failed++;
+        }
+        return "OK BATCH " + (result.results.length - failed) + " " + failed + failures;
+    }
+
+    // "ERROR COLOR_NOT_SUPPORTED purple" -> COLOR_NOT_SUPPORTED
+    private static String errorCode(String result) {
+        int start = result.indexOf(' ') + 1;
+        int end = result.indexOf(' ', start);
+        return (end < 0) ? result.substring(start) : result.substring(start, end);
+    }
+
+    // Commands a read replica redirects to its leader (JOIN could create a board)
+    private static boolean changesBoard(Command.Type type) {
+        switch (type) {
+            case POST: case PIN: case UNPIN: case SHAKE: case CLEAR: case JOIN:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // ---------------------------
+    // JOIN <board> [<boardW> <boardH> <noteW> <noteH> <colors>...]
+    // Creates the board if it does not exist yet (with the given configuration, or
+    // the default board's); a given configuration must fit the registry's size limit.
+    // Replies with the board's configuration, like WELCOME.
+    // A subscription moves along to the new board.
+    // ---------------------------
+    private String join(Command cmd) {
+        if (cmd.colors != null && !boards.allowsSize(cmd.boardW, cmd.boardH, cmd.noteW, cmd.noteH)) {
+            return "ERROR BOARD_TOO_LARGE Boards are limited to " + boards.sizeLimit();
+        }
+        SharedBboard target;
+        try {
+            target = (cmd.colors == null)
+                    ? boards.getOrCreate(cmd.board)
+                    : boards.getOrCreate(cmd.board, cmd.boardW, cmd.boardH, cmd.noteW, cmd.noteH, cmd.colors);
+        } catch (IllegalArgumentException e) {
+            return "ERROR INVALID_FORMAT " + e.getMessage();
+        }
+        if (target == null) return "ERROR BOARD_LIMIT No more boards can be created";
+        if (cmd.colors != null && !target.hasConfig(cmd.boardW, cmd.boardH, cmd.noteW, cmd.noteH, cmd.colors)) {
+            return "ERROR BOARD_EXISTS " + cmd.board + " has a different size or color list";
+        }
+
+        if (subscription != null) {
+            board.unsubscribe(subscription);
+            subscription = target.subscribe(SUBSCRIBE_QUEUE);
+        }
+        useBoard(cmd.board, target);
+        return "OK JOINED " + boardName + " " + boardConfig();
+    }
+
+    private void useBoard(String name, SharedBboard target) {
+        if (target == board) return;
+        board = target;
+        boardName = name;
+        String[] palette = target.palette();
+        parser = new CommandParser(palette);
+        codec = new BinaryCodec(palette);
+    }
+
+    // ---------------------------
+    // STATS
+    // "OK STATS <count>", then one "STAT <group> key=value ..." line each (see StatsReport)
+    // ---------------------------
+    private String handleStats() {
+        List<String> lines = StatsReport.lines(metrics, boards, log, boardName, board);
+        String head = "OK STATS " + lines.size();
+
+        if (binary) {
+            codec.writeReply(head);
+            for (String line : lines) codec.writeReply(line);
+            return null;
+        }
+
+        out.println(head);
+        for (String line : lines) out.println(line);
+        return null;
+    }
+
+    // ---------------------------
+    // GET PINS
+    // ---------------------------
+    private String handleGetPins() {
+
+        // Get a snapshot copy of pins (safe copy)
+        List<SharedBboard.Pin> pins = board.getPinsSnapshot();
+
+        if (binary) {
+            codec.writePins(pins);
+            return null;
+        }
+
+        // First line: OK <count>
+        out.println("OK " + pins.size());
+
+        // Then each pin line
+        for (SharedBboard.Pin p : pins) {
+            out.println("PIN " + p.x + " " + p.y);
+        }
+
+        // We already printed response lines, so return null
+        return null;
+    }
+
+    // ---------------------------
+    // GET command
+    // GET color=<color> contains=<x> <y> refersTo=<substring>
+    // Missing criteria means "ALL"
+    // LIMIT n / AFTER cursor page through the result ("OK <count> NEXT <cursor>"),
+    // STREAM sends it in chunks without building it first
+    // ---------------------------
+    private String handleGET(Command cmd) {
+        if (cmd.stream) return streamGET(cmd);
+
+        Integer containsX = cmd.hasContains ? cmd.containsX : null;
+        Integer containsY = cmd.hasContains ? cmd.containsY : null;
+
+        List<SharedBboard.NoteView> notes;
+        int next = -1;
+        if (cmd.limit == 0 && cmd.after == 0) {
+            // Ask board for the matching notes and their pinned flags (one consistent snapshot)
+            notes = board.queryNotes(cmd.colorFilter, containsX, containsY, cmd.refersTo);
+        } else {
+            int limit = (cmd.limit > 0) ? cmd.limit : Integer.MAX_VALUE;
+            SharedBboard.Page page = board.queryPage(cmd.colorFilter, containsX, containsY, cmd.refersTo,
+                    cmd.after, Integer.MAX_VALUE, limit);
+            notes = page.notes;
+            next = page.next;
+        }
+
+        if (binary) {
+            codec.writeNotes(notes, next);
+            return null;
+        }
+
+        // First line: OK <count>, plus the cursor of the next page if there is one
+        out.println(next < 0 ? "OK " + notes.size() : "OK " + notes.size() + " NEXT " + next);
+
+        // Print each matching note on its own line
+        printNotes(notes);
+
+        // We already printed lines, so return null
+        return null;
+    }
+
+    // GET ... STREAM: "OK STREAM", the NOTE lines, then "END <count>" (plus NEXT <cursor>
+    // when LIMIT cut it short). Notes are read STREAM_CHUNK at a time, so neither the
+    // board lock nor the memory held depends on the size of the result. Notes posted
+    // after the stream started are left out; notes removed meanwhile may be skipped.
+    private String streamGET(Command cmd) {
+        if (!dedicated) return "ERROR UNSUPPORTED GET STREAM is not available in this server mode";
+
+        Integer containsX = cmd.hasContains ? cmd.containsX : null;
+        Integer containsY = cmd.hasContains ? cmd.containsY : null;
+        int until = board.lastSeq();
+
+        if (!binary) out.println("OK STREAM");
+
+        int cursor = cmd.after, sent = 0, next;
+        while (true) {
+            int want = (cmd.limit > 0) ? Math.min(STREAM_CHUNK, cmd.limit - sent) : STREAM_CHUNK;
+            SharedBboard.Page page = board.queryPage(cmd.colorFilter, containsX, containsY, cmd.refersTo,
+                    cursor, until, want);
+            sent += page.notes.size();
+            next = page.next;
+
+            if (binary) {
+                codec.writeNotes(page.notes, BinaryCodec.MORE);
+                try {
+                    codec.flushTo(frameOut);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            } else {
+                printNotes(page.notes);
+            }
+            if (next < 0 || sent == cmd.limit) break;
+            cursor = next;
+        }
+
+        // The closing frame / line carries the cursor
+        if (binary) codec.writeNotes(Collections.emptyList(), next);
+        else out.println(next < 0 ? "END " + sent : "END " + sent + " NEXT " + next);
+        return null;
+    }
+
+    private void printNotes(List<SharedBboard.NoteView> notes) {
+        for (SharedBboard.NoteView v : notes) {
+            SharedBboard.Note n = v.note;
+
+            // NOTE x y color message PINNED=true/false
+            out.println("NOTE " + n.x + " " + n.y + " " + n.color + " " + n.message + " PINNED=" + v.pinned);
+        }
+    }
+}
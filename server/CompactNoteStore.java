@@ -0,0 +1,192 @@
+package server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Struct-of-arrays note store for very large boards.
+ *
+ * Coordinates, color ids and pin counts live in parallel primitive arrays and
+ * messages are kept as UTF-8 in one shared byte arena, so a note costs no object
+ * headers or pointers. SharedBboard.Note objects are only created for GET results.
+ */
+final class CompactNoteStore implements NoteStore {
+
+    private final String[] palette;
+
+    private int size;
+    private int[] xs = new int[16];
+    private int[] ys = new int[16];
+    private byte[] colors = new byte[16];
+    private int[] pinCounts = new int[16];
+    private int[] seqs = new int[16];
+    private int lastSeq;
+
+    // Message i is arena[offsets[i] .. offsets[i + 1])
+    private int[] offsets = new int[17];
+    private byte[] arena = new byte[256];
+
+    CompactNoteStore(String[] palette) {
+        if (palette.length > 256) {
+            throw new IllegalArgumentException("compact store supports at most 256 colors");
+        }
+        this.palette = palette;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int add(int x, int y, int colorId, String message) {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        return append(x, y, colorId, bytes, 0, bytes.length, ++lastSeq, 0);
+    }
+
+    @Override
+    public int load(int x, int y, int colorId, byte[] utf8, int off, int len, int seq, int pinCount) {
+        lastSeq = Math.max(lastSeq, seq);
+        return append(x, y, colorId, utf8, off, len, seq, pinCount);
+    }
+
+    @Override
+    public void restoreLastSeq(int seq) {
+        lastSeq = Math.max(lastSeq, seq);
+    }
+
+    private int append(int x, int y, int colorId, byte[] utf8, int off, int len, int seq, int pinCount) {
+        if (size == xs.length) {
+            int cap = size * 2;
+            xs = Arrays.copyOf(xs, cap);
+            ys = Arrays.copyOf(ys, cap);
+            colors = Arrays.copyOf(colors, cap);
+            pinCounts = Arrays.copyOf(pinCounts, cap);
+            seqs = Arrays.copyOf(seqs, cap);
+            offsets = Arrays.copyOf(offsets, cap + 1);
+        }
+
+        int start = offsets[size];
+        if (start + len > arena.length) {
+            arena = Arrays.copyOf(arena, Math.max(arena.length * 2, start + len));
+        }
+        System.arraycopy(utf8, off, arena, start, len);
+
+        xs[size] = x;
+        ys[size] = y;
+        colors[size] = (byte) colorId;
+        pinCounts[size] = pinCount;
+        seqs[size] = seq;
+        offsets[size + 1] = start + len;
+        return size++;
+    }
+
+    @Override public int seq(int id) { return seqs[id]; }
+    @Override public int lastSeq() { return lastSeq; }
+    @Override public int x(int id) { return xs[id]; }
+    @Override public int y(int id) { return ys[id]; }
+    @Override public int colorId(int id) { return colors[id] & 0xff; }
+
+    @Override
+    public String message(int id) {
+        return new String(arena, offsets[id], offsets[id + 1] - offsets[id], StandardCharsets.UTF_8);
+    }
+
+    // Compared against the arena bytes directly (UTF-8 substrings match exactly
+    // where the String substrings do)
+    @Override
+    public boolean messageContains(int id, String needle, byte[] needleUtf8) {
+        int last = offsets[id + 1] - needleUtf8.length;
+        outer:
+        for (int i = offsets[id]; i <= last; i++) {
+            for (int j = 0; j < needleUtf8.length; j++) {
+                if (arena[i + j] != needleUtf8[j]) continue outer;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean messageEquals(int id, String other, byte[] otherUtf8) {
+        return Arrays.equals(arena, offsets[id], offsets[id + 1], otherUtf8, 0, otherUtf8.length);
+    }
+
+    @Override
+    public SharedBboard.Note note(int id) {
+        int c = colorId(id);
+        return new SharedBboard.Note(xs[id], ys[id], c, palette[c], message(id));
+    }
+
+    @Override
+    public int pinCount(int id) {
+        return pinCounts[id];
+    }
+
+    @Override
+    public void addPinCount(int id, int delta) {
+        pinCounts[id] += delta;
+    }
+
+    // The arena space of the dropped messages is reused by the next add
+    @Override
+    public void truncate(int size, int lastSeq) {
+        this.size = Math.min(this.size, size);
+        this.lastSeq = lastSeq;
+    }
+
+    @Override
+    public void retainPinned() {
+        int kept = 0;
+        int end = 0; // end of the kept part of the arena
+
+        for (int i = 0; i < size; i++) {
+            if (pinCounts[i] == 0) continue;
+
+            int start = offsets[i], len = offsets[i + 1] - start;
+            System.arraycopy(arena, start, arena, end, len);
+
+            xs[kept] = xs[i];
+            ys[kept] = ys[i];
+            colors[kept] = colors[i];
+            pinCounts[kept] = pinCounts[i];
+            seqs[kept] = seqs[i];
+            offsets[kept] = end;
+            end += len;
+            kept++;
+        }
+
+        offsets[kept] = end;
+        size = kept;
+    }
+
+    // Arrays trimmed to the notes in use
+    @Override
+    public NoteStore copy() {
+        CompactNoteStore c = new CompactNoteStore(palette);
+        int cap = Math.max(1, size);
+        c.size = size;
+        c.xs = Arrays.copyOf(xs, cap);
+        c.ys = Arrays.copyOf(ys, cap);
+        c.colors = Arrays.copyOf(colors, cap);
+        c.pinCounts = Arrays.copyOf(pinCounts, cap);
+        c.seqs = Arrays.copyOf(seqs, cap);
+        c.offsets = Arrays.copyOf(offsets, cap + 1);
+        c.arena = Arrays.copyOf(arena, Math.max(1, offsets[size]));
+        c.lastSeq = lastSeq;
+        return c;
+    }
+
+    @Override
+    public void clear() {
+        size = 0;
+        offsets[0] = 0;
+    }
+
+    // Capacity of every array, including unused slack
+    @Override
+    public long estimatedBytes() {
+        return 4L * xs.length + 4L * ys.length + colors.length
+                + 4L * pinCounts.length + 4L * seqs.length + 4L * offsets.length + arena.length;
+    }
+}
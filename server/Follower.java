@@ -0,0 +1,171 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Read-replica side of --follow=<host:port>: keeps this server's main board a
+ * copy of a leader's.
+ *
+ * Connects to the leader's normal port as a client and sends REPLICATE. The
+ * leader answers "OK REPLICATE <position> <bytes>", then sends a BoardSnapshot
+ * image of its board, then every change record from that point on as
+ * [int length][record] (the write-ahead log's record format). Records are
+ * applied in order on this one thread. Clients of this server can only read:
+ * CommandProcessor answers changes with ERROR REDIRECT <leader>.
+ *
+ * If the connection drops, or the leader cuts this follower off for falling
+ * too far behind, it reconnects and starts over from a fresh copy.
+ *
+ * Lag: every HEARTBEAT_MILLIS the leader sends a heartbeat record with its
+ * current position (number of change records) and clock. Records of lag are
+ * that position minus the records applied here, i.e. changes still queued at
+ * the leader. Milliseconds of lag are how old a heartbeat was when it got
+ * through (both clocks are assumed in sync, as on one host), or the time since
+ * the last one was sent when the stream has stalled.
+ */
+public class Follower implements Runnable {
+
+    // Heartbeat record: [HEARTBEAT][long leader position][long leader currentTimeMillis]
+    static final byte HEARTBEAT = 0;
+
+    // How often the leader sends a heartbeat
+    static final long HEARTBEAT_MILLIS = 250;
+
+    // Wait between connection attempts
+    private static final long RETRY_MILLIS = 1000;
+
+    // Largest record accepted (records come from single protocol lines)
+    private static final int MAX_RECORD = 1 << 24;
+
+    private final String host;
+    private final int port;
+    private final SharedBboard board;
+    private final RequestLog log;
+
+    // State for REPLICATION; written by the follower thread only
+    private volatile boolean connected;
+    private volatile long applied;          // leader position reached here
+    private volatile long leaderPosition;   // from the latest heartbeat
+    private volatile long beatSent;         // leader clock of the latest heartbeat
+    private volatile long beatDelay;        // how long it took to get through
+    private volatile long copies;           // full board copies loaded
+
+    public Follower(String host, int port, SharedBboard board, RequestLog log) {
+        this.host = host;
+        this.port = port;
+        this.board = board;
+        this.log = log;
+    }
+
+    // "host:port" of the leader, where clients should send changes
+    public String leader() {
+        return host + ":" + port;
+    }
+
+    // Change records the leader has that this server has not applied yet
+    public long lagRecords() {
+        return Math.max(0, leaderPosition - applied);
+    }
+
+    // How far this server's copy trails the leader in time
+    public long lagMillis() {
+        long sinceSent = System.currentTimeMillis() - beatSent;
+        return (sinceSent > 2 * HEARTBEAT_MILLIS) ? sinceSent : beatDelay;
+    }
+
+    // One-line status for the REPLICATION command
+    public String report() {
+        return "role=follower leader=" + leader()
+                + " connected=" + connected
+                + " position=" + applied
+                + " lag_records=" + lagRecords()
+                + " lag_ms=" + lagMillis()
+                + " copies=" + copies;
+    }
+
+    // Follow the leader until interrupted, reconnecting whenever the stream breaks
+    @Override
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try (Socket socket = new Socket(host, port)) {
+                socket.setTcpNoDelay(true);
+                follow(socket);
+            } catch (EOFException e) {
+                log.warn(null, "Replication from " + leader() + " stopped: leader closed the connection");
+            } catch (IOException | RuntimeException e) {
+                log.warn(null, "Replication from " + leader() + " stopped: " + e.getMessage());
+            } finally {
+                connected = false;
+            }
+
+            try {
+                Thread.sleep(RETRY_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void follow(Socket socket) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+        OutputStream out = socket.getOutputStream();
+
+        String welcome = readLine(in);
+        if (welcome == null || !welcome.startsWith("WELCOME ")) throw new IOException("Leader sent " + welcome);
+        out.write("REPLICATE\n".getBytes(StandardCharsets.UTF_8));
+        out.flush();
+
+        // OK REPLICATE <position> <image bytes>
+        String reply = readLine(in);
+        String[] parts = (reply == null) ? new String[0] : reply.split(" ");
+        if (parts.length != 4 || !reply.startsWith("OK REPLICATE ")) throw new IOException("Leader replied " + reply);
+        long position = Long.parseLong(parts[2]);
+        byte[] image = new byte[Integer.parseInt(parts[3])];
+        in.readFully(image);
+
+        board.loadReplica(ByteBuffer.wrap(image));
+        applied = position;
+        leaderPosition = position;
+        beatSent = System.currentTimeMillis();
+        beatDelay = 0;
+        connected = true;
+        copies++;
+        log.info(null, "Following " + leader() + " from position " + position
+                + " (" + board.noteCount() + " notes copied)");
+
+        byte[] record = new byte[256];
+        while (true) {
+            int len = in.readInt();
+            if (len <= 0 || len > MAX_RECORD) throw new IOException("Bad record length " + len);
+            if (record.length < len) record = new byte[Math.max(len, record.length * 2)];
+            in.readFully(record, 0, len);
+
+            if (record[0] == HEARTBEAT) {
+                ByteBuffer beat = ByteBuffer.wrap(record, 1, 16);
+                leaderPosition = beat.getLong();
+                beatSent = beat.getLong();
+                beatDelay = Math.max(0, System.currentTimeMillis() - beatSent);
+            } else {
+                board.applyRecord(record, len);
+                applied++;
+            }
+        }
+    }
+
+    // One '\n'-terminated line of the text handshake
+    private static String readLine(DataInputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') line.write(b);
+        if (b == -1 && line.size() == 0) return null;
+        return line.toString(StandardCharsets.UTF_8).replace("\r", "");
+    }
+}
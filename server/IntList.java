@@ -0,0 +1,83 @@
+package server;
+
+import java.util.Arrays;
+
+/**
+ * Small growable list of primitive ints.
+ * Used by the board indexes to hold note ids without boxing.
+ * Not thread-safe: callers guard it with the board lock.
+ */
+final class IntList {
+
+    private int[] data;
+    private int size;
+
+    IntList() {
+        this(4);
+    }
+
+    IntList(int capacity) {
+        data = new int[Math.max(1, capacity)];
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int get(int i) {
+        return data[i];
+    }
+
+    void set(int i, int v) {
+        data[i] = v;
+    }
+
+    void add(int v) {
+        if (size == data.length) {
+            data = Arrays.copyOf(data, data.length * 2);
+        }
+        data[size++] = v;
+    }
+
+    int last() {
+        return data[size - 1];
+    }
+
+    // Independent copy with the same elements
+    IntList copy() {
+        IntList c = new IntList(size);
+        System.arraycopy(data, 0, c.data, 0, size);
+        c.size = size;
+        return c;
+    }
+
+    // Keep only the first newSize elements
+    void truncate(int newSize) {
+        size = Math.min(size, newSize);
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    // Elements present in both lists; both must be sorted ascending
+    static IntList intersect(IntList a, IntList b) {
+        IntList out = new IntList(Math.min(a.size, b.size));
+        int i = 0, j = 0;
+        while (i < a.size && j < b.size) {
+            int x = a.data[i], y = b.data[j];
+            if (x < y) i++;
+            else if (x > y) j++;
+            else {
+                out.add(x);
+                i++;
+                j++;
+            }
+        }
+        return out;
+    }
+}
@@ -0,0 +1,91 @@
+package server;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of durations in nanoseconds, in the style of HdrHistogram.
+ *
+ * Buckets are log-linear: values below SUB_BUCKETS get a bucket each, and every
+ * power of two above that is split into SUB_BUCKETS / 2 equal buckets, so any
+ * recorded value is reported within 1/64 (1.6%) of itself. Values up to
+ * 2^MAX_MAGNITUDE ns fit in BUCKETS = SUB_BUCKETS + (MAX_MAGNITUDE - SUB_BITS) * HALF
+ * counters (2^40 ns, about 18 minutes, in 128 + 33 * 64 = 2240 counters);
+ * larger ones land in the last bucket.
+ *
+ * record() is one atomic increment and a striped adder (the maximum only
+ * changes on a new record), so any number of threads can record at once
+ * without locking; counts are summed when read. Readers see a slightly moving
+ * picture while recording goes on, which is fine for monitoring.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int HALF = SUB_BUCKETS / 2;
+    private static final int MAX_MAGNITUDE = 40;
+    private static final int BUCKETS = SUB_BUCKETS + (MAX_MAGNITUDE - SUB_BITS) * HALF;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    // Bucket of a value: exact below SUB_BUCKETS, then HALF buckets per power of two
+    private static int index(long v) {
+        if (v < SUB_BUCKETS) return (int) Math.max(0, v);
+        int magnitude = Math.min(MAX_MAGNITUDE - 1, 63 - Long.numberOfLeadingZeros(v));
+        int shift = magnitude - SUB_BITS + 1;
+        int sub = (int) Math.min(SUB_BUCKETS - 1, v >>> shift);
+        return SUB_BUCKETS + (shift - 1) * HALF + (sub - HALF);
+    }
+
+    // Largest value that falls into a bucket
+    private static long highestIn(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int j = index - SUB_BUCKETS;
+        int shift = j / HALF + 1;
+        long sub = HALF + j % HALF;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    void record(long nanos) {
+        counts.incrementAndGet(index(nanos));
+        sum.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    long count() {
+        long n = 0;
+        for (int i = 0; i < counts.length(); i++) n += counts.get(i);
+        return n;
+    }
+
+    // Sum of all recorded values
+    long sum() {
+        return sum.sum();
+    }
+
+    long max() {
+        return max.get();
+    }
+
+    long mean() {
+        long n = count();
+        return (n == 0) ? 0 : sum.sum() / n;
+    }
+
+    // Value at or below which the fraction q (0..1) of the recorded values fall
+    long percentile(double q) {
+        long n = count();
+        if (n == 0) return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(q * n));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(highestIn(i), max.get());
+        }
+        return max.get();
+    }
+}
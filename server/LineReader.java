@@ -0,0 +1,109 @@
+package server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Buffered reader that hands out '\n'-terminated lines as ranges of its own
+ * byte buffer, so commands can be parsed without creating a String per line.
+ * A line is only valid until the next call to next().
+ * In binary mode nextFrame() hands out length-prefixed frames the same way.
+ */
+final class LineReader {
+
+    // Longest command line accepted (the connection is dropped beyond this)
+    static final int MAX_LINE = 1 << 20;
+
+    private final InputStream in;
+    private byte[] buf = new byte[8 * 1024];
+
+    // Unconsumed bytes are buf[pos, limit)
+    private int pos, limit;
+
+    // Current line (without the '\n')
+    private int lineStart, lineLength;
+
+    LineReader(InputStream in) {
+        this.in = in;
+    }
+
+    byte[] buffer() { return buf; }
+    int lineStart() { return lineStart; }
+    int lineLength() { return lineLength; }
+
+    // Advance to the next line; false at end of stream.
+    // A final line without '\n' is still returned, like BufferedReader.readLine().
+    boolean next() throws IOException {
+        int scanned = 0; // bytes after pos already known not to contain '\n'
+        while (true) {
+            for (int i = pos + scanned; i < limit; i++) {
+                if (buf[i] == '\n') {
+                    lineStart = pos;
+                    lineLength = i - pos;
+                    pos = i + 1;
+                    return true;
+                }
+            }
+            scanned = limit - pos;
+
+            if (!fill()) {
+                if (pos == limit) return false;
+                lineStart = pos;
+                lineLength = limit - pos;
+                pos = limit;
+                return true;
+            }
+        }
+    }
+
+    // Advance to the next [int length][body] frame; the body becomes the current "line".
+    // False at end of stream; a stream cut off mid-frame is an error.
+    boolean nextFrame() throws IOException {
+        if (!require(4)) return false;
+        int len = ((buf[pos] & 0xFF) << 24) | ((buf[pos + 1] & 0xFF) << 16)
+                | ((buf[pos + 2] & 0xFF) << 8) | (buf[pos + 3] & 0xFF);
+        if (len < 0 || len > MAX_LINE - 4) throw new IOException("Bad frame length " + len);
+
+        if (!require(4 + len)) throw new EOFException("Truncated frame");
+        lineStart = pos + 4;
+        lineLength = len;
+        pos += 4 + len;
+        return true;
+    }
+
+    // Buffer at least n unconsumed bytes; false if the stream ends first
+    private boolean require(int n) throws IOException {
+        while (limit - pos < n) {
+            if (!fill()) {
+                if (pos == limit) return false;
+                throw new EOFException("Truncated frame");
+            }
+        }
+        return true;
+    }
+
+    // Read more bytes, compacting or growing the buffer first; false at end of stream
+    private boolean fill() throws IOException {
+        if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, limit - pos);
+            limit -= pos;
+            pos = 0;
+        }
+        if (limit == buf.length) {
+            if (buf.length >= MAX_LINE) throw new IOException("Line too long");
+            buf = Arrays.copyOf(buf, buf.length * 2);
+        }
+
+        int n = in.read(buf, limit, buf.length - limit);
+        if (n < 0) return false;
+        limit += n;
+        return true;
+    }
+
+    // True if a next() call would not have to wait for the network
+    boolean ready() throws IOException {
+        return pos < limit || in.available() > 0;
+    }
+}
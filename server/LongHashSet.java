@@ -0,0 +1,121 @@
+package server;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash set of primitive longs (linear probing, backward-shift delete).
+ * Used for pins keyed by packed x/y so PIN/UNPIN never allocate.
+ * Long.MIN_VALUE marks free slots and cannot be stored.
+ * Not thread-safe: callers guard it with the board lock.
+ */
+final class LongHashSet {
+
+    static final long FREE = Long.MIN_VALUE;
+
+    private long[] keys;
+    private int size;
+    private int mask;
+
+    LongHashSet() {
+        allocate(16);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, FREE);
+        mask = capacity - 1;
+    }
+
+    // Same mixing as LongIntMap so packed coordinates spread out
+    private static int slot(long key, int mask) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key & mask;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean contains(long key) {
+        for (int i = slot(key, mask); keys[i] != FREE; i = (i + 1) & mask) {
+            if (keys[i] == key) return true;
+        }
+        return false;
+    }
+
+    // Returns true if the key was not already present
+    boolean add(long key) {
+        if (key == FREE) throw new IllegalArgumentException("reserved key");
+
+        int i = slot(key, mask);
+        while (keys[i] != FREE) {
+            if (keys[i] == key) return false;
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+
+        // Keep the load factor at or below 1/2
+        if (++size * 2 > keys.length) rehash(keys.length * 2);
+        return true;
+    }
+
+    // Returns true if the key was present
+    boolean remove(long key) {
+        int i = slot(key, mask);
+        while (keys[i] != key) {
+            if (keys[i] == FREE) return false;
+            i = (i + 1) & mask;
+        }
+
+        // Shift later entries of the probe run back so lookups never hit a hole
+        int gap = i;
+        for (int j = (gap + 1) & mask; keys[j] != FREE; j = (j + 1) & mask) {
+            int home = slot(keys[j], mask);
+            // Move keys[j] into the gap unless its home lies cyclically in (gap, j]
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                keys[gap] = keys[j];
+                gap = j;
+            }
+        }
+        keys[gap] = FREE;
+        size--;
+        return true;
+    }
+
+    void clear() {
+        Arrays.fill(keys, FREE);
+        size = 0;
+    }
+
+    // Slot-level iteration without allocating: keyAt(i) is FREE for empty slots
+    int capacity() {
+        return keys.length;
+    }
+
+    long keyAt(int slot) {
+        return keys[slot];
+    }
+
+    // Copy of all keys (iteration order is unspecified)
+    long[] toArray() {
+        long[] out = new long[size];
+        int n = 0;
+        for (long k : keys) {
+            if (k != FREE) out[n++] = k;
+        }
+        return out;
+    }
+
+    private void rehash(int capacity) {
+        long[] old = keys;
+        allocate(capacity);
+        for (long k : old) {
+            if (k == FREE) continue;
+            int i = slot(k, mask);
+            while (keys[i] != FREE) i = (i + 1) & mask;
+            keys[i] = k;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package server;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from primitive long keys to non-negative int values.
+ * Avoids boxing on the hot paths of the board indexes (e.g. packed x/y keys).
+ * Entries are added one at a time and dropped all at once with clear(), or
+ * one at a time with remove() (only used to undo an aborted BATCH).
+ * Not thread-safe: callers guard it with the board lock.
+ */
+final class LongIntMap {
+
+    // Value stored in free slots (also returned by get() for missing keys)
+    static final int MISSING = -1;
+
+    private long[] keys;
+    private int[] values;
+    private int size;
+    private int mask;
+
+    LongIntMap() {
+        allocate(16);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, MISSING);
+        mask = capacity - 1;
+    }
+
+    // Spread the key bits so packed coordinates don't cluster
+    private static int slot(long key, int mask) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key & mask;
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Value for the key, or MISSING
+    int get(long key) {
+        for (int i = slot(key, mask); values[i] != MISSING; i = (i + 1) & mask) {
+            if (keys[i] == key) return values[i];
+        }
+        return MISSING;
+    }
+
+    boolean containsKey(long key) {
+        return get(key) != MISSING;
+    }
+
+    // Insert or replace; value must be >= 0
+    void put(long key, int value) {
+        int i = slot(key, mask);
+        while (values[i] != MISSING) {
+            if (keys[i] == key) {
+                values[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+
+        keys[i] = key;
+        values[i] = value;
+
+        // Keep the load factor at or below 1/2
+        if (++size * 2 > keys.length) rehash(keys.length * 2);
+    }
+
+    // Remove a key if present; later entries of its probe chain are shifted back
+    // into the hole so lookups never stop early
+    void remove(long key) {
+        int i = slot(key, mask);
+        while (values[i] != MISSING && keys[i] != key) i = (i + 1) & mask;
+        if (values[i] == MISSING) return;
+
+        int hole = i;
+        for (int j = (i + 1) & mask; values[j] != MISSING; j = (j + 1) & mask) {
+            // The entry at j may fill the hole if the hole lies between its home slot and j
+            int home = slot(keys[j], mask);
+            if (((j - home) & mask) >= ((j - hole) & mask)) {
+                keys[hole] = keys[j];
+                values[hole] = values[j];
+                hole = j;
+            }
+        }
+        values[hole] = MISSING;
+        size--;
+    }
+
+    void clear() {
+        Arrays.fill(values, MISSING);
+        size = 0;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldValues[j] == MISSING) continue;
+
+            int i = slot(oldKeys[j], mask);
+            while (values[i] != MISSING) i = (i + 1) & mask;
+            keys[i] = oldKeys[j];
+            values[i] = oldValues[j];
+        }
+    }
+}
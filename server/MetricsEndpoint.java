@@ -0,0 +1,56 @@
+package server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+/**
+ * Plain-text metrics over HTTP for --metrics-port=<port>: GET /metrics answers
+ * with StatsReport's Prometheus text, so a scraper can watch the server without
+ * speaking the board protocol. Runs on the JDK's built-in HTTP server with one
+ * daemon thread, apart from the client connections.
+ */
+final class MetricsEndpoint {
+
+    private MetricsEndpoint() {
+    }
+
+    static HttpServer start(int port, ServerMetrics metrics, BoardRegistry boards, RequestLog log) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/metrics", exchange -> {
+            try (exchange) {
+                if (!exchange.getRequestMethod().equals("GET")) {
+                    exchange.sendResponseHeaders(405, -1);
+                    return;
+                }
+                byte[] body = StatsReport.prometheus(metrics, boards, log).getBytes(StandardCharsets.UTF_8);
+                send(exchange, 200, body);
+            }
+        });
+        server.createContext("/", exchange -> {
+            try (exchange) {
+                send(exchange, 404, "Metrics are at /metrics\n".getBytes(StandardCharsets.UTF_8));
+            }
+        });
+        server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "metrics-http");
+            t.setDaemon(true);
+            return t;
+        }));
+        server.start();
+        return server;
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Non-blocking server mode: one acceptor plus a small pool of selector event loops.
+ *
+ * Each loop owns a set of connections and reads them through one shared direct
+ * buffer, so an idle connection only costs its channel, key and a tiny Conn object.
+ * Complete lines are run through a per-connection CommandProcessor (same text
+ * protocol and SharedBboard semantics as the threaded mode) and all replies for
+ * one read are written back in a single batch.
+ *
+ * Commands run on the loop thread, so a connection's replies are bounded: once
+ * MAX_PENDING_REPLIES bytes wait for its socket, the rest of its input is held
+ * back and nothing more is read from it until the socket has taken them. Commands
+ * must not block, which is why BBoard refuses this mode with a durable log.
+ */
+public class NioServer {
+
+    private final int port, backlog;
+    private final EventLoop[] loops;
+
+    // Admission control: open connections allowed (0 = unlimited)
+    private final int maxConnections;
+    private final ServerMetrics metrics;
+    private final RequestLog log;
+
+    private final BoardRegistry boards;
+
+    // Reply bytes a connection may have waiting before its further commands are held back
+    private static final int MAX_PENDING_REPLIES = 256 * 1024;
+
+    public NioServer(int port, int backlog, int loopCount,
+                     int maxConnections, ServerMetrics metrics, RequestLog log,
+                     BoardRegistry boards) {
+        this.port = port;
+        this.backlog = backlog;
+        this.maxConnections = maxConnections;
+        this.metrics = metrics;
+        this.log = log;
+        this.boards = boards;
+        this.loops = new EventLoop[Math.max(1, loopCount)];
+    }
+
+    // Start the event loops and accept connections forever (blocking accept on this thread)
+    public void run() throws IOException {
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop(i);
+            loops[i].start();
+        }
+
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(port), backlog);
+            System.out.println("Server listening on port " + port + " (nio, " + loops.length + " event loops)");
+
+            int next = 0;
+            while (true) {
+                SocketChannel channel = server.accept();
+                String client = String.valueOf(channel.getRemoteAddress());
+                log.info(client, "Client connected");
+
+                // Too many open connections: answer while the channel is still blocking, then hang up
+                if (!metrics.tryOpenConnection(maxConnections)) {
+                    log.warn(client, "Rejected SERVER_BUSY (" + metrics.connectionReport() + ")");
+                    try {
+                        channel.write(ByteBuffer.wrap((ClientHandler.SERVER_BUSY + System.lineSeparator())
+                                .getBytes(StandardCharsets.UTF_8)));
+                    } catch (IOException ignored) {
+                    } finally {
+                        closeQuietly(channel);
+                    }
+                    continue;
+                }
+
+                // Hand connections to the loops round-robin
+                loops[next].register(channel, client);
+                next = (next + 1) % loops.length;
+            }
+        }
+    }
+
+    /* =========================
+       Per-connection state
+       ========================= */
+
+    private final class Conn {
+        final SocketChannel channel;
+        final String client;
+        final CommandProcessor processor;
+
+        // Bytes of the current, not yet terminated, command line
+        byte[] line = new byte[64];
+        int lineLen;
+
+        // Replies the socket did not accept yet (null when fully written)
+        ByteBuffer pending;
+
+        // Input read but not run yet, held back while too many replies wait (null = none)
+        ByteBuffer unread;
+
+        // Close once 'pending' is drained (DISCONNECT or protocol error)
+        boolean closing;
+
+        Conn(SocketChannel channel, String client) {
+            this.channel = channel;
+            this.client = client;
+            this.processor = new CommandProcessor(boards, metrics, log, client, false);
+        }
+
+        void appendByte(byte b) {
+            if (lineLen == line.length) line = Arrays.copyOf(line, line.length * 2);
+            line[lineLen++] = b;
+        }
+    }
+
+    /* =========================
+       Event loop
+       ========================= */
+
+    private final class EventLoop extends Thread {
+        private final Selector selector;
+        private final Queue<Conn> newConns = new ConcurrentLinkedQueue<>();
+
+        // Shared by every connection of this loop (only this thread touches them)
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+        private final ByteArrayOutputStream replyBytes = new ByteArrayOutputStream();
+        private final PrintWriter replies =
+                new PrintWriter(new OutputStreamWriter(replyBytes, StandardCharsets.UTF_8), false);
+
+        EventLoop(int index) throws IOException {
+            super("nio-loop-" + index);
+            setDaemon(true);
+            this.selector = Selector.open();
+        }
+
+        // Called from the acceptor thread
+        void register(SocketChannel channel, String client) {
+            newConns.add(new Conn(channel, client));
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    selector.select();
+                    acceptNewChannels();
+
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        handle(key);
+                    }
+                } catch (IOException e) {
+                    log.warn(null, "Event loop error: " + e.getMessage());
+                }
+            }
+        }
+
+        private void acceptNewChannels() {
+            Conn conn;
+            while ((conn = newConns.poll()) != null) {
+                SocketChannel channel = conn.channel;
+                try {
+                    channel.configureBlocking(false);
+                    SelectionKey key = channel.register(selector, SelectionKey.OP_READ, conn);
+
+                    // Send the handshake right away
+                    replies.println(conn.processor.welcome());
+                    flushReplies(key, conn);
+                } catch (IOException e) {
+                    closeQuietly(channel);
+                    metrics.connectionClosed();
+                }
+            }
+        }
+
+        private void handle(SelectionKey key) {
+            Conn conn = (Conn) key.attachment();
+            try {
+                if (key.isValid() && key.isWritable()) {
+                    writePending(key, conn);
+                    // Replies drained: carry on with the commands held back
+                    if (key.isValid() && conn.pending == null && conn.unread != null) {
+                        runInput(key, conn, conn.unread);
+                    }
+                }
+                if (key.isValid() && key.isReadable()) read(key, conn);
+            } catch (IOException e) {
+                // Client closed or connection dropped
+                log.info(conn.client, "Client disconnected: " + e.getMessage());
+                close(key);
+            } catch (RuntimeException e) {
+                // A failed command must not take down the loop and its other connections
+                log.warn(conn.client, "Closing connection after an internal error: " + e);
+                // Drop the partial replies so they do not reach the next connection
+                replies.flush();
+                replyBytes.reset();
+                close(key);
+            }
+        }
+
+        // Read whatever is available, run every complete line, then write all replies at once
+        private void read(SelectionKey key, Conn conn) throws IOException {
+            readBuffer.clear();
+            int n = conn.channel.read(readBuffer);
+            if (n < 0) {
+                close(key);
+                return;
+            }
+            metrics.bytesRead(n);
+            readBuffer.flip();
+            runInput(key, conn, readBuffer);
+        }
+
+        // Run the lines in 'in' and send their replies. Input left over once the
+        // connection has MAX_PENDING_REPLIES waiting is kept in conn.unread and run
+        // when the socket has taken the replies.
+        private void runInput(SelectionKey key, Conn conn, ByteBuffer in) throws IOException {
+            while (true) {
+                runLines(conn, in);
+                if (!in.hasRemaining() || conn.closing) {
+                    conn.unread = null;
+                } else if (in != conn.unread) {
+                    conn.unread = ByteBuffer.allocate(in.remaining()).put(in).flip();
+                }
+                flushReplies(key, conn);
+
+                // The socket took everything: keep going with the rest right away
+                if (!key.isValid() || conn.pending != null || conn.unread == null) return;
+                in = conn.unread;
+            }
+        }
+
+        // Run complete lines until 'in' is used up or too many replies wait
+        private void runLines(Conn conn, ByteBuffer in) {
+            int waiting = (conn.pending == null) ? 0 : conn.pending.remaining();
+            while (in.hasRemaining() && !conn.closing && waiting + replyBytes.size() < MAX_PENDING_REPLIES) {
+                byte b = in.get();
+                if (b != '\n') {
+                    conn.appendByte(b);
+                    if (conn.lineLen > LineReader.MAX_LINE) {
+                        replies.println("ERROR INVALID_FORMAT Line too long");
+                        conn.closing = true;
+                    }
+                    continue;
+                }
+
+                // Parse the command straight from the line bytes
+                int len = conn.lineLen;
+                conn.lineLen = 0;
+                if (!conn.processor.handle(conn.line, 0, len, replies)) conn.closing = true;
+            }
+        }
+
+        // Move this batch's replies to the socket; keep the rest for OP_WRITE
+        private void flushReplies(SelectionKey key, Conn conn) throws IOException {
+            replies.flush();
+            if (replyBytes.size() > 0) {
+                ByteBuffer out = ByteBuffer.wrap(replyBytes.toByteArray());
+                replyBytes.reset();
+
+                if (conn.pending == null) {
+                    conn.pending = out;
+                } else {
+                    ByteBuffer merged = ByteBuffer.allocate(conn.pending.remaining() + out.remaining());
+                    merged.put(conn.pending).put(out).flip();
+                    conn.pending = merged;
+                }
+            }
+            writePending(key, conn);
+        }
+
+        private void writePending(SelectionKey key, Conn conn) throws IOException {
+            if (conn.pending != null) {
+                metrics.bytesWritten(conn.channel.write(conn.pending));
+                if (!conn.pending.hasRemaining()) conn.pending = null;
+            }
+
+            if (conn.pending != null) {
+                // Socket is full: wait for OP_WRITE and stop reading new commands meanwhile
+                key.interestOps(SelectionKey.OP_WRITE);
+            } else if (conn.unread != null) {
+                // runInput() carries on with the commands held back
+                key.interestOps(0);
+            } else if (conn.closing) {
+                close(key);
+            } else {
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        private void close(SelectionKey key) {
+            ((Conn) key.attachment()).processor.close();
+            key.cancel();
+            closeQuietly(key.channel());
+            metrics.connectionClosed();
+        }
+    }
+
+    private static void closeQuietly(Channel channel) {
+        try { channel.close(); } catch (IOException ignored) {}
+    }
+}
@@ -0,0 +1,94 @@
+package server;
+
+/**
+ * Uniform grid over the board used to answer "which notes contain this point".
+ *
+ * Cells are at least one note in size, so a note overlaps at most 2x2 cells and
+ * a point lookup only has to check the notes registered in a single cell.
+ * Cells hold note ids (indexes into the board's note list) in ascending order.
+ * Not thread-safe: callers guard it with the board lock.
+ */
+final class NoteGrid {
+
+    // Upper bound on the number of cells so huge boards with tiny notes stay small
+    private static final long MAX_CELLS = 1 << 20;
+
+    private final int cellW, cellH;
+    private final int cols, rows;
+    private final IntList[] cells;
+
+    NoteGrid(int boardW, int boardH, int noteW, int noteH) {
+        int scale = scale(boardW, boardH, noteW, noteH);
+        this.cellW = Math.max(1, noteW) * scale;
+        this.cellH = Math.max(1, noteH) * scale;
+        this.cols = Math.max(1, ceilDiv(boardW, cellW));
+        this.rows = Math.max(1, ceilDiv(boardH, cellH));
+        this.cells = new IntList[cols * rows];
+    }
+
+    // Number of cells the grid of a board with these sizes has
+    static long cellCount(int boardW, int boardH, int noteW, int noteH) {
+        int scale = scale(boardW, boardH, noteW, noteH);
+        return (long) Math.max(1, ceilDiv(boardW, Math.max(1, noteW) * scale))
+                * Math.max(1, ceilDiv(boardH, Math.max(1, noteH) * scale));
+    }
+
+    // Cells are one note times this factor: doubled until the grid fits under MAX_CELLS
+    private static int scale(int boardW, int boardH, int noteW, int noteH) {
+        int cw = Math.max(1, noteW);
+        int ch = Math.max(1, noteH);
+        int scale = 1;
+        while ((long) ceilDiv(boardW, cw * scale) * ceilDiv(boardH, ch * scale) > MAX_CELLS) {
+            scale *= 2;
+        }
+        return scale;
+    }
+
+    private static int ceilDiv(int a, int b) {
+        return (int) (((long) a + b - 1) / b);
+    }
+
+    // Register a note covering [x, x+w) x [y, y+h) in every cell it overlaps
+    void add(int id, int x, int y, int w, int h) {
+        int c0 = x / cellW, c1 = Math.min(cols - 1, (x + w - 1) / cellW);
+        int r0 = y / cellH, r1 = Math.min(rows - 1, (y + h - 1) / cellH);
+
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                int i = r * cols + c;
+                if (cells[i] == null) cells[i] = new IntList();
+                cells[i].add(id);
+            }
+        }
+    }
+
+    // Unregister the newest note again (it must be the last one added to its cells)
+    void removeLast(int id, int x, int y, int w, int h) {
+        int c0 = x / cellW, c1 = Math.min(cols - 1, (x + w - 1) / cellW);
+        int r0 = y / cellH, r1 = Math.min(rows - 1, (y + h - 1) / cellH);
+
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                IntList cell = cells[r * cols + c];
+                if (cell != null && !cell.isEmpty() && cell.last() == id) cell.truncate(cell.size() - 1);
+            }
+        }
+    }
+
+    // Candidate notes for a point (null if the point is off the grid or the cell is empty)
+    IntList cellAt(int px, int py) {
+        if (px < 0 || py < 0) return null;
+
+        int c = px / cellW, r = py / cellH;
+        if (c >= cols || r >= rows) return null;
+
+        return cells[r * cols + c];
+    }
+
+    // Drop every note from the grid (cells are kept for reuse)
+    void clear() {
+        for (IntList cell : cells) {
+            if (cell != null) cell.clear();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package server;
+
+/**
+ * Storage engine for the notes of a SharedBboard.
+ *
+ * Notes are addressed by id = position in insertion order. Ids stay stable until
+ * retainPinned() or clear() runs, after which the board rebuilds its indexes.
+ * Every note also gets a sequence number that never changes and never repeats
+ * (not even after clear()), and that increases with the id; GET cursors use it.
+ * Implementations are not thread-safe: callers guard them with the board lock.
+ */
+interface NoteStore {
+
+    enum Kind { OBJECT, COMPACT }
+
+    // Create a store for the given palette (color ids index into it)
+    static NoteStore create(Kind kind, String[] palette) {
+        switch (kind) {
+            case COMPACT: return new CompactNoteStore(palette);
+            default:      return new ObjectNoteStore(palette);
+        }
+    }
+
+    // Parse a store kind from the command line (object / compact)
+    static Kind parseKind(String name) {
+        return Kind.valueOf(name.trim().toUpperCase());
+    }
+
+    int size();
+
+    // Append a note and return its id
+    int add(int x, int y, int colorId, String message);
+
+    // Sequence number of a note (1, 2, 3, ... in post order)
+    int seq(int id);
+
+    // Sequence number of the newest note ever added, even if it is gone (0 if none)
+    int lastSeq();
+
+    int x(int id);
+    int y(int id);
+    int colorId(int id);
+    String message(int id);
+
+    // Message checks for the query paths, without building the message String.
+    // The needle comes both as a String and as its UTF-8 bytes; each store uses
+    // whichever matches how it keeps messages (the bytes may be null for OBJECT).
+    boolean messageContains(int id, String needle, byte[] needleUtf8);
+    boolean messageEquals(int id, String other, byte[] otherUtf8);
+
+    // The note as a SharedBboard.Note (may be created on demand)
+    SharedBboard.Note note(int id);
+
+    // Number of pins inside the note; > 0 means pinned
+    int pinCount(int id);
+    void addPinCount(int id, int delta);
+
+    // Drop the notes from id 'size' on and rewind the sequence to 'lastSeq'
+    // (undoes notes just added that nobody has seen yet)
+    void truncate(int size, int lastSeq);
+
+    // Drop every note whose pin count is 0, keeping the others in order
+    void retainPinned();
+
+    // Independent copy of the current contents; snapshots are written from it
+    // after the board lock is released
+    NoteStore copy();
+
+    // Append a note read back from a snapshot (message as UTF-8), keeping its
+    // sequence number and pin count
+    int load(int x, int y, int colorId, byte[] utf8, int off, int len, int seq, int pinCount);
+
+    // After loading: the newest sequence number handed out before the snapshot
+    void restoreLastSeq(int seq);
+
+    void clear();
+
+    // Approximate heap bytes held by the store
+    long estimatedBytes();
+}
@@ -0,0 +1,139 @@
+package server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Note store holding one SharedBboard.Note object per note.
+ * Simple and allocation-friendly for small boards; each note costs an object
+ * header, a String and its byte array on top of the message itself.
+ */
+final class ObjectNoteStore implements NoteStore {
+
+    private final String[] palette;
+    private final List<SharedBboard.Note> notes;
+
+    // Parallel to 'notes'
+    private final IntList pinCounts;
+    private final IntList seqs;
+
+    private int lastSeq;
+
+    ObjectNoteStore(String[] palette) {
+        this(palette, new ArrayList<>(), new IntList(), new IntList());
+    }
+
+    private ObjectNoteStore(String[] palette, List<SharedBboard.Note> notes, IntList pinCounts, IntList seqs) {
+        this.palette = palette;
+        this.notes = notes;
+        this.pinCounts = pinCounts;
+        this.seqs = seqs;
+    }
+
+    @Override
+    public int size() {
+        return notes.size();
+    }
+
+    @Override
+    public int add(int x, int y, int colorId, String message) {
+        notes.add(new SharedBboard.Note(x, y, colorId, palette[colorId], message));
+        pinCounts.add(0);
+        seqs.add(++lastSeq);
+        return notes.size() - 1;
+    }
+
+    @Override public int seq(int id) { return seqs.get(id); }
+    @Override public int lastSeq() { return lastSeq; }
+    @Override public int x(int id) { return notes.get(id).x; }
+    @Override public int y(int id) { return notes.get(id).y; }
+    @Override public int colorId(int id) { return notes.get(id).colorId; }
+    @Override public String message(int id) { return notes.get(id).message; }
+    @Override public SharedBboard.Note note(int id) { return notes.get(id); }
+
+    @Override
+    public boolean messageContains(int id, String needle, byte[] needleUtf8) {
+        return notes.get(id).message.contains(needle);
+    }
+
+    @Override
+    public boolean messageEquals(int id, String other, byte[] otherUtf8) {
+        return notes.get(id).message.equals(other);
+    }
+
+    @Override
+    public int pinCount(int id) {
+        return pinCounts.get(id);
+    }
+
+    @Override
+    public void addPinCount(int id, int delta) {
+        pinCounts.set(id, pinCounts.get(id) + delta);
+    }
+
+    @Override
+    public void truncate(int size, int lastSeq) {
+        notes.subList(size, notes.size()).clear();
+        pinCounts.truncate(size);
+        seqs.truncate(size);
+        this.lastSeq = lastSeq;
+    }
+
+    @Override
+    public void retainPinned() {
+        int kept = 0;
+        for (int i = 0; i < notes.size(); i++) {
+            if (pinCounts.get(i) == 0) continue;
+            notes.set(kept, notes.get(i));
+            pinCounts.set(kept, pinCounts.get(i));
+            seqs.set(kept, seqs.get(i));
+            kept++;
+        }
+        notes.subList(kept, notes.size()).clear();
+        pinCounts.truncate(kept);
+        seqs.truncate(kept);
+    }
+
+    // Notes are immutable, so copying the references is enough
+    @Override
+    public NoteStore copy() {
+        ObjectNoteStore c = new ObjectNoteStore(palette, new ArrayList<>(notes), pinCounts.copy(), seqs.copy());
+        c.lastSeq = lastSeq;
+        return c;
+    }
+
+    @Override
+    public int load(int x, int y, int colorId, byte[] utf8, int off, int len, int seq, int pinCount) {
+        String message = new String(utf8, off, len, StandardCharsets.UTF_8);
+        notes.add(new SharedBboard.Note(x, y, colorId, palette[colorId], message));
+        pinCounts.add(pinCount);
+        seqs.add(seq);
+        lastSeq = Math.max(lastSeq, seq);
+        return notes.size() - 1;
+    }
+
+    @Override
+    public void restoreLastSeq(int seq) {
+        lastSeq = Math.max(lastSeq, seq);
+    }
+
+    @Override
+    public void clear() {
+        notes.clear();
+        pinCounts.clear();
+        seqs.clear();
+    }
+
+    // Per note: Note (32) + String (24) + byte[] header (16) + message bytes
+    // + list slot (4) + pin count (4) + seq (4), assuming compressed oops and 8-byte alignment
+    @Override
+    public long estimatedBytes() {
+        long total = 0;
+        for (SharedBboard.Note n : notes) {
+            long chars = n.message.length();
+            total += 32 + 24 + ((16 + chars + 7) & ~7L) + 4 + 4 + 4;
+        }
+        return total;
+    }
+}
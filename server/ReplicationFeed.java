@@ -0,0 +1,46 @@
+package server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Change records queued for one follower (see Follower), in apply order.
+ *
+ * Records are the same bodies the write-ahead log stores. Like a Subscription,
+ * the board offers them while holding its write lock and never waits: if the
+ * follower falls a whole queue behind, the feed is marked lost and stops
+ * taking records. The leader then drops the connection and the follower
+ * starts over from a fresh copy of the board.
+ */
+final class ReplicationFeed {
+
+    private final ArrayBlockingQueue<byte[]> queue;
+    private volatile boolean lost;
+
+    ReplicationFeed(int capacity) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    // Producer side (board, under its write lock)
+    void offer(byte[] record) {
+        if (lost) return;
+        if (!queue.offer(record)) {
+            lost = true;
+            queue.clear();
+        }
+    }
+
+    // Next record, or null if none arrived within the timeout
+    byte[] poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return queue.poll(timeout, unit);
+    }
+
+    // Next record if one is queued, otherwise null
+    byte[] poll() {
+        return queue.poll();
+    }
+
+    boolean isLost() {
+        return lost;
+    }
+}
@@ -0,0 +1,174 @@
+package server;
+
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous server log.
+ *
+ * Handler threads only drop an entry into a fixed-size lock-free ring buffer;
+ * one background thread formats the entries as key=value lines and writes them
+ * to stdout in batches. When the ring is full, entries are dropped and counted
+ * instead of blocking the caller. Per-request entries are sampled.
+ */
+public class RequestLog {
+
+    enum Level { OFF, WARN, INFO }
+
+    private final Level level;
+
+    // Fraction of requests that get logged (1.0 = all, 0 = none)
+    private final double sampleRate;
+
+    // Ring buffer: producers claim 'tail' with CAS, the writer thread consumes at 'head'
+    private final AtomicReferenceArray<Entry> ring;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final Writer out = new BufferedWriter(
+            new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), StandardCharsets.UTF_8), 64 * 1024);
+
+    // One log line, formatted later by the writer thread
+    private static final class Entry {
+        final long timeMillis;
+        final Level level;
+        final String client;
+        final String message;   // free text, or the command name for requests
+        final long latencyNanos; // -1 for non-request entries
+        final String result;
+
+        Entry(Level level, String client, String message, long latencyNanos, String result) {
+            this.timeMillis = System.currentTimeMillis();
+            this.level = level;
+            this.client = client;
+            this.message = message;
+            this.latencyNanos = latencyNanos;
+            this.result = result;
+        }
+    }
+
+    public RequestLog(Level level, double sampleRate, int capacity) {
+        this.level = level;
+        this.sampleRate = sampleRate;
+
+        // Round the capacity up to a power of two so slots are found with a mask
+        int cap = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.ring = new AtomicReferenceArray<>(cap);
+        this.mask = cap - 1;
+
+        if (level != Level.OFF) {
+            Thread writer = new Thread(this::drainLoop, "request-log");
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    // Parse a level name from the command line (off / warn / info)
+    static Level parseLevel(String name) {
+        return Level.valueOf(name.trim().toUpperCase());
+    }
+
+    /* =========================
+       Producer side (any thread)
+       ========================= */
+
+    // Should the caller time and log the request it is about to run?
+    public boolean sampleRequest() {
+        if (level.compareTo(Level.INFO) < 0 || sampleRate <= 0) return false;
+        return sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate;
+    }
+
+    // One handled command: who sent it, what it was, how long it took, what it returned
+    public void request(String client, String command, long latencyNanos, String result) {
+        publish(new Entry(Level.INFO, client, command, latencyNanos, result));
+    }
+
+    // Connection lifecycle and other informational events
+    public void info(String client, String message) {
+        if (level.compareTo(Level.INFO) >= 0) publish(new Entry(Level.INFO, client, message, -1, null));
+    }
+
+    public void warn(String client, String message) {
+        if (level.compareTo(Level.WARN) >= 0) publish(new Entry(Level.WARN, client, message, -1, null));
+    }
+
+    private void publish(Entry e) {
+        while (true) {
+            long t = tail.get();
+            if (t - head.get() >= ring.length()) {
+                dropped.incrementAndGet();
+                return;
+            }
+            if (tail.compareAndSet(t, t + 1)) {
+                ring.set((int) t & mask, e);
+                return;
+            }
+        }
+    }
+
+    public long droppedEntries() {
+        return dropped.get();
+    }
+
+    /* =========================
+       Writer thread
+       ========================= */
+
+    private void drainLoop() {
+        long reportedDrops = 0;
+        while (true) {
+            int written = 0;
+            long h = head.get();
+
+            // Take every published entry (a claimed but not yet filled slot ends the batch)
+            Entry e;
+            while ((e = ring.get((int) h & mask)) != null) {
+                ring.set((int) h & mask, null);
+                head.lazySet(++h);
+                write(e);
+                written++;
+            }
+
+            long drops = dropped.get();
+            if (drops != reportedDrops) {
+                write(new Entry(Level.WARN, null, "log ring full, dropped=" + (drops - reportedDrops), -1, null));
+                reportedDrops = drops;
+            }
+
+            if (written == 0) {
+                try { out.flush(); } catch (IOException ignored) {}
+                LockSupport.parkNanos(1_000_000);
+            }
+        }
+    }
+
+    // ts=<millis> level=INFO client=/1.2.3.4:5 cmd=POST latency_us=12 result=OK_NOTE_POSTED
+    private void write(Entry e) {
+        StringBuilder sb = new StringBuilder(96);
+        sb.append("ts=").append(e.timeMillis).append(" level=").append(e.level);
+        if (e.client != null) sb.append(" client=").append(e.client);
+
+        if (e.latencyNanos >= 0) {
+            sb.append(" cmd=").append(e.message)
+              .append(" latency_us=").append(e.latencyNanos / 1000)
+              .append(" result=").append(e.result);
+        } else {
+            sb.append(" msg=\"").append(e.message).append('"');
+        }
+        sb.append('\n');
+
+        try { out.write(sb.toString()); } catch (IOException ignored) {}
+    }
+}
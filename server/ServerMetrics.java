@@ -0,0 +1,173 @@
+package server;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Server-wide counters, shared by the accept loop and every handler: connections,
+ * bytes on the wire, and per command type a latency histogram and an error count.
+ * Lock-free so the hot paths only pay for an atomic increment or two.
+ * STATS and the --metrics-port endpoint read them (see StatsReport).
+ */
+public class ServerMetrics {
+
+    // Connections currently open (admitted and not yet closed, including queued ones)
+    private final AtomicInteger active = new AtomicInteger();
+
+    // Admitted connections still waiting for a worker thread
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    // Worker threads currently serving a connection
+    private final AtomicInteger busy = new AtomicInteger();
+
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong queued = new AtomicLong();
+
+    // Per command type (by ordinal): how long handling took (its count is the number
+    // of commands) and how many were answered with ERROR
+    private final LatencyHistogram[] latency = new LatencyHistogram[Command.Type.values().length];
+    private final LongAdder[] errors = new LongAdder[Command.Type.values().length];
+
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+
+    public ServerMetrics() {
+        for (int i = 0; i < latency.length; i++) {
+            latency[i] = new LatencyHistogram();
+            errors[i] = new LongAdder();
+        }
+    }
+
+    // Admit a new connection unless maxConnections (0 = unlimited) are already open
+    public boolean tryOpenConnection(int maxConnections) {
+        while (true) {
+            int current = active.get();
+            if (maxConnections > 0 && current >= maxConnections) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            if (active.compareAndSet(current, current + 1)) {
+                accepted.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    public void connectionClosed() {
+        active.decrementAndGet();
+    }
+
+    // An admitted connection was turned away afterwards (e.g. the worker queue was full)
+    public void connectionRejected() {
+        active.decrementAndGet();
+        accepted.decrementAndGet();
+        rejected.incrementAndGet();
+    }
+
+    // Bookkeeping for the bounded worker pool.
+    // Returns true if every worker is busy, i.e. the task has to wait in the queue.
+    public boolean taskSubmitted(int workers) {
+        boolean willQueue = busy.get() + waiting.get() >= workers;
+        waiting.incrementAndGet();
+        return willQueue;
+    }
+
+    // The pool refused a submitted task
+    public void taskRejected() {
+        waiting.decrementAndGet();
+    }
+
+    public void taskStarted(boolean waitedInQueue) {
+        waiting.decrementAndGet();
+        busy.incrementAndGet();
+        if (waitedInQueue) queued.incrementAndGet();
+    }
+
+    public void taskFinished() {
+        busy.decrementAndGet();
+    }
+
+    // One handled command (the operations of a BATCH count as its END)
+    void commandDone(Command.Type type, long nanos, boolean failed) {
+        latency[type.ordinal()].record(nanos);
+        if (failed) errors[type.ordinal()].increment();
+    }
+
+    LatencyHistogram latency(Command.Type type) {
+        return latency[type.ordinal()];
+    }
+
+    long errors(Command.Type type) {
+        return errors[type.ordinal()].sum();
+    }
+
+    void bytesRead(long n) {
+        bytesIn.add(n);
+    }
+
+    void bytesWritten(long n) {
+        bytesOut.add(n);
+    }
+
+    public long bytesIn() { return bytesIn.sum(); }
+    public long bytesOut() { return bytesOut.sum(); }
+
+    // A socket stream that adds what it reads to bytesIn
+    InputStream counting(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) bytesIn.increment();
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0) bytesIn.add(n);
+                return n;
+            }
+        };
+    }
+
+    // A socket stream that adds what it writes to bytesOut
+    OutputStream counting(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                bytesOut.increment();
+            }
+
+            // FilterOutputStream would write the array one byte at a time
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                bytesOut.add(len);
+            }
+        };
+    }
+
+    public int activeConnections() { return active.get(); }
+    public int waitingConnections() { return waiting.get(); }
+    public long acceptedConnections() { return accepted.get(); }
+    public long rejectedConnections() { return rejected.get(); }
+    public long queuedConnections() { return queued.get(); }
+
+    // One-line summary for the server log
+    public String connectionReport() {
+        return "active=" + active.get()
+                + " waiting=" + waiting.get()
+                + " accepted=" + accepted.get()
+                + " queued=" + queued.get()
+                + " rejected=" + rejected.get();
+    }
+}
@@ -1,11 +1,19 @@
 package server;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Shared, thread-safe bulletin board state.
  * One single board instance is shared across all connected clients.
- * All public methods are synchronized so each command runs atomically.
+ * Every public method runs under the board lock so each command is atomic:
+ * mutations take the write lock, GET-style queries take the read lock.
+ * The lock strategy (monitor / read-write / stamped) is chosen at startup.
  */
 public class SharedBboard {
 
@@ -16,17 +24,41 @@ public class SharedBboard {
     // Represents a single note on the board
     public static class Note {
         public final int x, y;        // top-left corner of the note
+        public final int colorId;     // index of the color in the board palette
         public final String color;    // note color (stored lowercase)
         public final String message;  // note message text
 
-        public Note(int x, int y, String color, String message) {
+        public Note(int x, int y, int colorId, String color, String message) {
             this.x = x;
             this.y = y;
+            this.colorId = colorId;
             this.color = color;
             this.message = message;
         }
     }
 
+    // Immutable GET result: a note plus whether it was pinned when the listing was built
+    public static class NoteView {
+        public final Note note;
+        public final boolean pinned;
+
+        public NoteView(Note note, boolean pinned) {
+            this.note = note;
+            this.pinned = pinned;
+        }
+    }
+
+    // One page of GET results plus the cursor to continue from (-1 = nothing more matched)
+    public static class Page {
+        public final List<NoteView> notes;
+        public final int next;
+
+        public Page(List<NoteView> notes, int next) {
+            this.notes = notes;
+            this.next = next;
+        }
+    }
+
     // Represents a pin (a single point on the board)
     public static class Pin {
         public final int x, y;
@@ -50,31 +82,158 @@ public class SharedBboard {
         }
     }
 
+    // POST / PIN / UNPIN operations for applyBatch(), in the order they run
+    public static class Batch {
+        static final byte POST = 0, PIN = 1, UNPIN = 2;
+
+        private byte[] ops = new byte[16];
+        private int[] xs = new int[16], ys = new int[16], colorIds = new int[16];
+        private String[] colors = new String[16], messages = new String[16];
+        private int size;
+
+        // POST by palette id; with colorId -1 'color' is the unsupported color (for the error reply)
+        public void post(int x, int y, int colorId, String color, String message) {
+            int i = add(POST, x, y);
+            colorIds[i] = colorId;
+            colors[i] = (colorId < 0) ? color : null;
+            messages[i] = message;
+        }
+
+        public void pin(int x, int y) {
+            add(PIN, x, y);
+        }
+
+        public void unpin(int x, int y) {
+            add(UNPIN, x, y);
+        }
+
+        public int size() {
+            return size;
+        }
+
+        private int add(byte op, int x, int y) {
+            if (size == ops.length) {
+                int cap = size * 2;
+                ops = Arrays.copyOf(ops, cap);
+                xs = Arrays.copyOf(xs, cap);
+                ys = Arrays.copyOf(ys, cap);
+                colorIds = Arrays.copyOf(colorIds, cap);
+                colors = Arrays.copyOf(colors, cap);
+                messages = Arrays.copyOf(messages, cap);
+            }
+            ops[size] = op;
+            xs[size] = x;
+            ys[size] = y;
+            return size++;
+        }
+    }
+
+    // Outcome of applyBatch(): each operation's reply, in order
+    public static class BatchResult {
+        public final String[] results;
+        public final int abortedAt;      // atomic batch undone because this operation failed (-1 = not undone)
+        public final boolean persisted;  // false if the log could not be written
+
+        public BatchResult(String[] results, int abortedAt, boolean persisted) {
+            this.results = results;
+            this.abortedAt = abortedAt;
+            this.persisted = persisted;
+        }
+    }
+
     /* =========================
        Board configuration
        ========================= */
 
+    // Reply to every change once the log has failed
+    private static final String LOG_STOPPED = "ERROR LOG_WRITE_FAILED Board is read-only after a log write error";
+
     private final int boardW, boardH;
     private final int noteW, noteH;
 
-    // All valid colors stored in lowercase
-    private final Set<String> validColors;
+    // Palette of valid colors (lowercase); a color's id is its index here
+    private final String[] palette;
+    private final Map<String, Integer> colorIds = new HashMap<>();
+
+    // Notes (with their pin counts) in insertion order; a note's id is its position
+    private final NoteStore notes;
+    private final NoteStore.Kind storeKind;
+    // Pins as packed x/y keys (see packXY)
+    private final LongHashSet pins = new LongHashSet();
+
+    // Spatial index over note ids for point lookups
+    private final NoteGrid grid;
+
+    // Packed top-left corner -> note id, for O(1) complete-overlap checks
+    private final LongIntMap corners = new LongIntMap();
+
+    // Note ids per palette color, so color= filters only visit that color
+    private final IntList[] byColor;
+
+    // Message trigrams -> note ids, narrows refersTo= searches
+    private final TrigramIndex trigrams = new TrigramIndex();
 
-    private final List<Note> notes = new ArrayList<>();
-    private final Set<Pin> pins = new HashSet<>();
+    // Guards all of the state above
+    private final BoardLock.Timed lock;
 
-    // Constructor — called once when the server starts
+    // SUBSCRIBE-d clients; events are offered while the write lock is held,
+    // so every subscriber sees them in mutation order
+    private final List<Subscription> subscribers = new CopyOnWriteArrayList<>();
+
+    // Events of an atomic batch, held back until it succeeds (null = publish right away)
+    private List<String> heldEvents;
+
+    // Write-ahead log of successful mutations (null = in-memory only); set by openLog()
+    // before the server starts taking clients
+    private WriteAheadLog wal;
+    private Path walFile;
+
+    // Followers being fed change records (see replicate())
+    private final List<ReplicationFeed> feeds = new CopyOnWriteArrayList<>();
+
+    // Change records produced while a log or follower was attached; written under
+    // the write lock
+    private volatile long position;
+
+    // Log replay and follower records go through the normal public operations
+    private final WriteAheadLog.Replayer replayer = new WriteAheadLog.Replayer() {
+        @Override public void post(int x, int y, String color, String message) { SharedBboard.this.post(x, y, color, message); }
+        @Override public void pin(int x, int y) { SharedBboard.this.pin(x, y); }
+        @Override public void unpin(int x, int y) { SharedBboard.this.unpin(x, y); }
+        @Override public void shake() { SharedBboard.this.shake(); }
+        @Override public void clear() { SharedBboard.this.clear(); }
+    };
+
+    // Serializes snapshot(); snapshotLsn is the last log record the newest snapshot covers
+    private final Object snapshotMonitor = new Object();
+    private long snapshotLsn;
+
+    // Constructor — called once when the server starts (monitor locking, object store)
     public SharedBboard(int boardW, int boardH, int noteW, int noteH, String[] colors) {
+        this(boardW, boardH, noteW, noteH, colors, BoardLock.Strategy.MONITOR, NoteStore.Kind.OBJECT);
+    }
+
+    SharedBboard(int boardW, int boardH, int noteW, int noteH, String[] colors,
+                 BoardLock.Strategy lockStrategy, NoteStore.Kind storeKind) {
+        this.lock = new BoardLock.Timed(BoardLock.create(lockStrategy));
         this.boardW = boardW;
         this.boardH = boardH;
         this.noteW = noteW;
         this.noteH = noteH;
+        this.grid = new NoteGrid(boardW, boardH, noteW, noteH);
 
-        // Normalize all valid colors to lowercase
-        this.validColors = new HashSet<>();
+        // Normalize all valid colors to lowercase and give each a small id
+        List<String> unique = new ArrayList<>();
         for (String c : colors) {
-            validColors.add(c.toLowerCase());
+            String lc = c.toLowerCase();
+            if (colorIds.putIfAbsent(lc, unique.size()) == null) unique.add(lc);
         }
+        this.palette = unique.toArray(new String[0]);
+        this.notes = NoteStore.create(storeKind, palette);
+        this.storeKind = storeKind;
+
+        this.byColor = new IntList[palette.length];
+        for (int i = 0; i < byColor.length; i++) byColor[i] = new IntList();
     }
 
     /* =========================
@@ -88,138 +247,873 @@ public class SharedBboard {
                y + noteH <= boardH;
     }
 
-    // Check if color is supported (expects lowercase)
-    private boolean isColorValid(String c) {
-        return validColors.contains(c);
+    // How long callers waited for this board's lock, and held it for writing
+    LatencyHistogram lockWaits() { return lock.waits; }
+    LatencyHistogram lockHolds() { return lock.holds; }
+
+    // Valid colors in palette id order (lowercase)
+    String[] palette() {
+        return palette.clone();
+    }
+
+    int boardWidth() { return boardW; }
+    int boardHeight() { return boardH; }
+    int noteWidth() { return noteW; }
+    int noteHeight() { return noteH; }
+
+    // Whether this board was set up with these sizes and colors (colors in any case)
+    boolean hasConfig(int boardW, int boardH, int noteW, int noteH, String[] colors) {
+        if (boardW != this.boardW || boardH != this.boardH || noteW != this.noteW || noteH != this.noteH) {
+            return false;
+        }
+        Set<String> wanted = new HashSet<>();
+        for (String c : colors) wanted.add(c.toLowerCase());
+        return wanted.equals(colorIds.keySet());
+    }
+
+    // Palette id of a color, or -1 if it is not supported (expects lowercase)
+    private int colorId(String c) {
+        Integer id = colorIds.get(c);
+        return id == null ? -1 : id;
+    }
+
+    // Pack a coordinate pair into one long key (x in the high half, y in the low half)
+    static long packXY(int x, int y) {
+        return ((long) x << 32) | (y & 0xffffffffL);
+    }
+
+    static int unpackX(long key) {
+        return (int) (key >>> 32);
+    }
+
+    static int unpackY(long key) {
+        return (int) key;
     }
 
     // Check if another note already exists at the same top-left corner
     private boolean isCompleteOverlap(int x, int y) {
-        for (Note n : notes) {
-            if (n.x == x && n.y == y) return true;
-        }
-        return false;
+        return corners.containsKey(packXY(x, y));
     }
 
     // Check if a point is inside a note
-    private boolean noteContainsPoint(Note n, int px, int py) {
-        return px >= n.x && px < n.x + noteW &&
-               py >= n.y && py < n.y + noteH;
+    private boolean noteContainsPoint(int id, int px, int py) {
+        int x = notes.x(id), y = notes.y(id);
+        return px >= x && px < x + noteW &&
+               py >= y && py < y + noteH;
     }
 
-    // Check if any note contains a point
+    // Check if any note contains a point (only the notes in the point's grid cell)
     private boolean anyNoteContainsPoint(int x, int y) {
-        for (Note n : notes) {
-            if (noteContainsPoint(n, x, y)) return true;
+        IntList cell = grid.cellAt(x, y);
+        if (cell == null) return false;
+
+        for (int i = 0; i < cell.size(); i++) {
+            if (noteContainsPoint(cell.get(i), x, y)) return true;
         }
         return false;
     }
 
-    // Check if a note is pinned
-    private boolean isPinned(Note n) {
-        for (Pin p : pins) {
-            if (noteContainsPoint(n, p.x, p.y)) return true;
+    // Re-register every note in the indexes (note ids shift when notes are removed)
+    private void rebuildIndexes() {
+        grid.clear();
+        corners.clear();
+        trigrams.clear();
+        for (IntList list : byColor) list.clear();
+        for (int i = 0; i < notes.size(); i++) {
+            int x = notes.x(i), y = notes.y(i);
+            grid.add(i, x, y, noteW, noteH);
+            corners.put(packXY(x, y), i);
+            trigrams.add(i, notes.message(i));
+            byColor[notes.colorId(i)].add(i);
         }
-        return false;
+    }
+
+    // Add delta to the pin count of every note containing a point
+    private void adjustPinCounts(int x, int y, int delta) {
+        IntList cell = grid.cellAt(x, y);
+        if (cell == null) return;
+
+        for (int i = 0; i < cell.size(); i++) {
+            int id = cell.get(i);
+            if (noteContainsPoint(id, x, y)) notes.addPinCount(id, delta);
+        }
+    }
+
+    // Count the existing pins that fall inside a note placed at (x, y)
+    private int countPinsInside(int x, int y) {
+        int count = 0;
+
+        // Probe every point of the note if that is cheaper than walking all pins
+        if ((long) noteW * noteH <= pins.size()) {
+            for (int py = y; py < y + noteH; py++) {
+                for (int px = x; px < x + noteW; px++) {
+                    if (pins.contains(packXY(px, py))) count++;
+                }
+            }
+        } else {
+            for (int i = 0; i < pins.capacity(); i++) {
+                long key = pins.keyAt(i);
+                if (key == LongHashSet.FREE) continue;
+
+                int px = unpackX(key), py = unpackY(key);
+                if (px >= x && px < x + noteW && py >= y && py < y + noteH) count++;
+            }
+        }
+        return count;
+    }
+
+    // Check if a note is pinned (the note must still be on the board)
+    private boolean isPinned(Note n) {
+        int id = corners.get(packXY(n.x, n.y));
+        return id != LongIntMap.MISSING
+                && notes.colorId(id) == n.colorId
+                && notes.pinCount(id) > 0
+                && notes.messageEquals(id, n.message, utf8(n.message));
+    }
+
+    // UTF-8 bytes of a message, or null when the object store compares Strings anyway
+    private byte[] utf8(String message) {
+        return (storeKind == NoteStore.Kind.COMPACT) ? message.getBytes(StandardCharsets.UTF_8) : null;
     }
 
     /* =========================
        Command operations
        ========================= */
 
+    // Successful changes are appended to the log and queued for followers while the
+    // write lock is held (so both see them in apply order); waiting for the disk
+    // happens after unlocking. Once the log has failed every change is refused.
+
     // POST x y color message
-    public synchronized String post(int x, int y, String color, String message) {
+    public String post(int x, int y, String color, String message) {
+        String result;
+        long lsn = 0;
+        long stamp = lock.writeLock();
+        try {
+            if (logFailed()) return LOG_STOPPED;
+            result = doPost(x, y, color, message);
+            if (isOk(result) && recording()) lsn = record(WriteAheadLog.postRecord(x, y, color.toLowerCase(), message));
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        return durable(result, lsn);
+    }
+
+    // POST with a color already resolved to its palette id (see palette())
+    public String post(int x, int y, int colorId, String message) {
+        String result;
+        long lsn = 0;
+        long stamp = lock.writeLock();
+        try {
+            if (logFailed()) return LOG_STOPPED;
+            String color = (colorId >= 0 && colorId < palette.length) ? palette[colorId] : String.valueOf(colorId);
+            result = doPost(x, y, colorId, color, message);
+            if (isOk(result) && recording()) lsn = record(WriteAheadLog.postRecord(x, y, color, message));
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        return durable(result, lsn);
+    }
+
+    // PIN x y
+    public String pin(int x, int y) {
+        String result;
+        long lsn = 0;
+        long stamp = lock.writeLock();
+        try {
+            if (logFailed()) return LOG_STOPPED;
+            result = doPin(x, y);
+            if (isOk(result) && recording()) lsn = record(WriteAheadLog.pinRecord(x, y));
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        return durable(result, lsn);
+    }
+
+    // UNPIN x y
+    public String unpin(int x, int y) {
+        String result;
+        long lsn = 0;
+        long stamp = lock.writeLock();
+        try {
+            if (logFailed()) return LOG_STOPPED;
+            result = doUnpin(x, y);
+            if (isOk(result) && recording()) lsn = record(WriteAheadLog.unpinRecord(x, y));
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        return durable(result, lsn);
+    }
+
+    // SHAKE — remove all unpinned notes
+    public String shake() {
+        String result;
+        long lsn = 0;
+        long stamp = lock.writeLock();
+        try {
+            if (logFailed()) return LOG_STOPPED;
+            result = doShake();
+            if (recording()) lsn = record(WriteAheadLog.shakeRecord());
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        return durable(result, lsn);
+    }
+
+    // CLEAR — remove everything
+    public String clear() {
+        String result;
+        long lsn = 0;
+        long stamp = lock.writeLock();
+        try {
+            if (logFailed()) return LOG_STOPPED;
+            result = doClear();
+            if (recording()) lsn = record(WriteAheadLog.clearRecord());
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        return durable(result, lsn);
+    }
+
+    // BATCH — apply a group of POST / PIN / UNPIN operations under one write lock,
+    // so other clients see the board before or after all of them. Each change is
+    // logged and replicated as if sent alone, but the log is waited for only once.
+    // Atomic: the first failure undoes the operations before it and nothing is
+    // logged, replicated or published; otherwise each operation succeeds or fails
+    // on its own. Once the log has failed every operation fails with LOG_WRITE_FAILED.
+    public BatchResult applyBatch(Batch batch, boolean atomic) {
+        String[] results = new String[batch.size];
+        int abortedAt = -1;
+        long lsn = 0;
+        long stamp = lock.writeLock();
+        try {
+            if (logFailed()) {
+                Arrays.fill(results, LOG_STOPPED);
+                abortedAt = (atomic && batch.size > 0) ? 0 : -1;
+            } else if (atomic) {
+                abortedAt = doAtomicBatch(batch, results);
+                if (abortedAt < 0 && recording()) {
+                    for (int i = 0; i < batch.size; i++) lsn = record(batchRecord(batch, i));
+                }
+            } else {
+                for (int i = 0; i < batch.size; i++) {
+                    results[i] = doBatchOp(batch, i);
+                    if (isOk(results[i]) && recording()) lsn = record(batchRecord(batch, i));
+                }
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        return new BatchResult(results, abortedAt, lsn == 0 || wal.awaitDurable(lsn));
+    }
+
+    // Whether anyone (log or follower) takes change records; caller holds the write lock
+    private boolean recording() {
+        return wal != null || !feeds.isEmpty();
+    }
+
+    // Hand a change record to the log and every follower. Returns the log record
+    // number to wait for (0 = no log). Caller holds the write lock.
+    private long record(byte[] body) {
+        position++;
+        for (ReplicationFeed feed : feeds) feed.offer(body);
+        return (wal != null) ? wal.append(body) : 0;
+    }
+
+    // A replayed board must not lose a change the log could not hold, so nothing is
+    // applied after a log write error (caller holds the write lock)
+    private boolean logFailed() {
+        return wal != null && wal.failed();
+    }
+
+    private static boolean isOk(String result) {
+        return result.startsWith("OK");
+    }
+
+    // Wait for the log record of a change (lsn 0 = nothing was logged)
+    private String durable(String result, long lsn) {
+        if (lsn == 0 || wal.awaitDurable(lsn)) return result;
+        return "ERROR LOG_WRITE_FAILED Change applied but not persisted";
+    }
+
+    /* =========================
+       Persistence
+       ========================= */
+
+    // Rebuild the board from the snapshot and log at 'file' (created if missing),
+    // then log every later change to it. Call once, before clients connect.
+    public WriteAheadLog openLog(Path file, WriteAheadLog.Durability durability) throws IOException {
+        Path snap = BoardSnapshot.pathFor(file);
+        long fromSegment = 1;
+        if (Files.exists(snap)) {
+            long stamp = lock.writeLock();
+            try {
+                fromSegment = BoardSnapshot.read(snap, boardW, boardH, noteW, noteH, palette, notes, pins);
+                rebuildIndexes();
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        WriteAheadLog log = WriteAheadLog.open(file, fromSegment, durability, replayer);
+        this.wal = log;
+        this.walFile = file;
+        // Record numbers restart at 0 on open; a loaded snapshot covers record 0
+        this.snapshotLsn = Files.exists(snap) ? 0 : -1;
+        return log;
+    }
+
+    // Write a snapshot next to the log and delete the log segments it replaces.
+    // Writers are held up only while the board is copied, not while the file is
+    // written. Returns the number of notes saved, or -1 if nothing changed since
+    // the last snapshot.
+    public int snapshot() throws IOException {
+        synchronized (snapshotMonitor) {
+            BoardSnapshot image;
+            long stamp = lock.readLock();
+            try {
+                if (wal.lastLsn() == snapshotLsn) return -1;
+                // Appends need the write lock, so the copy and the segment boundary agree
+                long segment = wal.roll();
+                snapshotLsn = wal.lastLsn();
+                image = new BoardSnapshot(boardW, boardH, noteW, noteH, palette,
+                        notes.copy(), pins.toArray(), segment);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+
+            image.write(BoardSnapshot.pathFor(walFile));
+            wal.deleteSegmentsBefore(image.segment);
+            return image.noteCount();
+        }
+    }
+
+    /* =========================
+       Replication
+       ========================= */
+
+    // Leader side of REPLICATE: a copy of the board plus a feed of every change
+    // record after it
+    static final class Replication {
+        final ReplicationFeed feed;
+        final byte[] image;    // BoardSnapshot of the board when the feed started
+        final long position;   // change records produced before the copy
+        private final SharedBboard board;
+
+        Replication(SharedBboard board, ReplicationFeed feed, byte[] image, long position) {
+            this.board = board;
+            this.feed = feed;
+            this.image = image;
+            this.position = position;
+        }
+
+        // Change records produced by now (sent in heartbeats)
+        long currentPosition() {
+            return board.position;
+        }
+    }
+
+    // Start feeding a follower. The copy and the feed start at the same point:
+    // writers are held off (read lock) while the board is copied and the feed added.
+    Replication replicate(int capacity) throws IOException {
+        ReplicationFeed feed = new ReplicationFeed(capacity);
+        BoardSnapshot image;
+        long at;
+        long stamp = lock.readLock();
+        try {
+            image = new BoardSnapshot(boardW, boardH, noteW, noteH, palette, notes.copy(), pins.toArray(), 0);
+            at = position;
+            feeds.add(feed);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        return new Replication(this, feed, image.toBytes(), at);
+    }
+
+    void stopReplicating(ReplicationFeed feed) {
+        feeds.remove(feed);
+    }
+
+    int followerCount() {
+        return feeds.size();
+    }
+
+    // Change records produced so far (for heartbeats to followers)
+    long position() {
+        return position;
+    }
+
+    // Follower side: replace the whole board with a leader's copy. Subscribers are
+    // told to RESYNC, since the changes in between are not sent as events.
+    void loadReplica(ByteBuffer image) throws IOException {
+        long stamp = lock.writeLock();
+        try {
+            doClear();
+            BoardSnapshot.read(image, boardW, boardH, noteW, noteH, palette, notes, pins);
+            rebuildIndexes();
+            for (Subscription sub : subscribers) sub.resync();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // Follower side: apply one change record from the leader
+    void applyRecord(byte[] body, int len) {
+        WriteAheadLog.apply(body, len, replayer);
+    }
+
+    /* =========================
+       Subscriptions
+       ========================= */
+
+    // Start receiving board events (see Subscription for the overflow rules)
+    public Subscription subscribe(int capacity) {
+        Subscription sub = new Subscription(capacity);
+        subscribers.add(sub);
+        return sub;
+    }
+
+    public void unsubscribe(Subscription sub) {
+        subscribers.remove(sub);
+    }
+
+    // Caller holds the write lock
+    private void publish(String event) {
+        if (heldEvents != null) {
+            heldEvents.add(event);
+            return;
+        }
+        for (Subscription sub : subscribers) sub.offer(event);
+    }
+
+    /* =========================
+       Operations (caller holds the write lock)
+       ========================= */
+
+    private String doPost(int x, int y, String color, String message) {
 
         // Normalize color to lowercase so BLUE/Blue/blue all work
         color = color.toLowerCase();
+        return doPost(x, y, colorId(color), color, message);
+    }
+
+    private String doPost(int x, int y, int colorId, String color, String message) {
 
         if (!fitsOnBoard(x, y))
             return "ERROR OUT_OF_BOUNDS Note exceeds board boundaries";
 
-        if (!isColorValid(color))
+        if (colorId < 0 || colorId >= palette.length)
             return "ERROR COLOR_NOT_SUPPORTED " + color;
 
         if (isCompleteOverlap(x, y))
             return "ERROR COMPLETE_OVERLAP Note overlaps an existing note entirely";
 
-        notes.add(new Note(x, y, color, message));
+        int id = notes.add(x, y, colorId, message);
+        notes.addPinCount(id, countPinsInside(x, y));
+        grid.add(id, x, y, noteW, noteH);
+        corners.put(packXY(x, y), id);
+        trigrams.add(id, message);
+        byColor[colorId].add(id);
+
+        if (!subscribers.isEmpty()) publish("EVENT NOTE_POSTED " + x + " " + y + " " + color + " " + message);
         return "OK NOTE_POSTED";
     }
 
-    // PIN x y
-    public synchronized String pin(int x, int y) {
+    private String doPin(int x, int y) {
         if (!anyNoteContainsPoint(x, y))
             return "ERROR NO_NOTE_AT_COORDINATE";
 
-        pins.add(new Pin(x, y));
+        if (pins.add(packXY(x, y))) {
+            adjustPinCounts(x, y, 1);
+            if (!subscribers.isEmpty()) publish("EVENT PIN_ADDED " + x + " " + y);
+        }
         return "OK PIN_ADDED";
     }
 
-    // UNPIN x y
-    public synchronized String unpin(int x, int y) {
+    private String doUnpin(int x, int y) {
         if (!anyNoteContainsPoint(x, y))
             return "ERROR NO_NOTE_AT_COORDINATE";
 
-        boolean removed = pins.remove(new Pin(x, y));
+        boolean removed = pins.remove(packXY(x, y));
         if (!removed)
             return "ERROR PIN_NOT_FOUND";
 
+        adjustPinCounts(x, y, -1);
+
+        if (!subscribers.isEmpty()) publish("EVENT PIN_REMOVED " + x + " " + y);
         return "OK PIN_REMOVED";
     }
 
-    // SHAKE — remove all unpinned notes
-    public synchronized String shake() {
-        notes.removeIf(n -> !isPinned(n));
-        pins.removeIf(p -> !anyNoteContainsPoint(p.x, p.y));
+    private String doShake() {
+        // Subscribers are told which notes (and stranded pins) go away;
+        // only build that list when someone is listening
+        StringBuilder removedNotes = null;
+        int removedNoteCount = 0;
+        if (!subscribers.isEmpty()) {
+            removedNotes = new StringBuilder();
+            for (int id = 0, n = notes.size(); id < n; id++) {
+                if (notes.pinCount(id) > 0) continue;
+                removedNotes.append("\nNOTE ").append(notes.x(id)).append(' ').append(notes.y(id))
+                        .append(' ').append(palette[notes.colorId(id)]).append(' ').append(notes.message(id));
+                removedNoteCount++;
+            }
+        }
+
+        // Compact notes and their pin counts together, keeping only pinned notes
+        notes.retainPinned();
+
+        rebuildIndexes();
+        StringBuilder removedPins = (removedNotes != null) ? new StringBuilder() : null;
+        int removedPinCount = 0;
+        for (long key : pins.toArray()) {
+            if (!anyNoteContainsPoint(unpackX(key), unpackY(key))) {
+                pins.remove(key);
+                if (removedPins != null) {
+                    removedPins.append("\nPIN ").append(unpackX(key)).append(' ').append(unpackY(key));
+                    removedPinCount++;
+                }
+            }
+        }
+
+        // EVENT SHAKE <notes> <pins>, then one NOTE line per removed note and one PIN line per removed pin
+        if (removedNotes != null) {
+            publish("EVENT SHAKE " + removedNoteCount + " " + removedPinCount + removedNotes + removedPins);
+        }
         return "OK SHAKE_COMPLETE";
     }
 
-    // CLEAR — remove everything
-    public synchronized String clear() {
+    private String doClear() {
         notes.clear();
         pins.clear();
+        grid.clear();
+        corners.clear();
+        trigrams.clear();
+        for (IntList list : byColor) list.clear();
+
+        if (!subscribers.isEmpty()) publish("EVENT CLEAR");
         return "OK CLEAR_COMPLETE";
     }
 
+    private String doBatchOp(Batch batch, int i) {
+        int x = batch.xs[i], y = batch.ys[i];
+        switch (batch.ops[i]) {
+            case Batch.POST:
+                int colorId = batch.colorIds[i];
+                if (colorId < 0) return doPost(x, y, batch.colors[i], batch.messages[i]);
+                String color = (colorId < palette.length) ? palette[colorId] : String.valueOf(colorId);
+                return doPost(x, y, colorId, color, batch.messages[i]);
+            case Batch.PIN:
+                return doPin(x, y);
+            default:
+                return doUnpin(x, y);
+        }
+    }
+
+    // Log / follower record of a batch operation that succeeded
+    private byte[] batchRecord(Batch batch, int i) {
+        int x = batch.xs[i], y = batch.ys[i];
+        switch (batch.ops[i]) {
+            case Batch.POST:  return WriteAheadLog.postRecord(x, y, palette[batch.colorIds[i]], batch.messages[i]);
+            case Batch.PIN:   return WriteAheadLog.pinRecord(x, y);
+            default:          return WriteAheadLog.unpinRecord(x, y);
+        }
+    }
+
+    // Run every operation, holding events back. On the first failure, undo the
+    // operations before it and return its index; -1 once all of them succeeded.
+    private int doAtomicBatch(Batch batch, String[] results) {
+        int notesBefore = notes.size(), seqBefore = notes.lastSeq();
+        IntList pinChanges = new IntList(); // operations that added or removed a pin
+        List<String> events = new ArrayList<>();
+        heldEvents = events;
+        try {
+            for (int i = 0; i < batch.size; i++) {
+                boolean hadPin = batch.ops[i] != Batch.POST && pins.contains(packXY(batch.xs[i], batch.ys[i]));
+                results[i] = doBatchOp(batch, i);
+
+                if (!isOk(results[i])) {
+                    undoBatch(batch, pinChanges, notesBefore, seqBefore);
+                    return i;
+                }
+                if (batch.ops[i] == Batch.UNPIN || (batch.ops[i] == Batch.PIN && !hadPin)) pinChanges.add(i);
+            }
+        } finally {
+            heldEvents = null;
+        }
+
+        for (String event : events) publish(event);
+        return -1;
+    }
+
+    // Put the board back as it was before an atomic batch: pin changes in reverse
+    // order, then the notes it posted (always the newest ids)
+    private void undoBatch(Batch batch, IntList pinChanges, int notesBefore, int seqBefore) {
+        for (int k = pinChanges.size() - 1; k >= 0; k--) {
+            int i = pinChanges.get(k);
+            int x = batch.xs[i], y = batch.ys[i];
+            if (batch.ops[i] == Batch.PIN) {
+                pins.remove(packXY(x, y));
+                adjustPinCounts(x, y, -1);
+            } else {
+                pins.add(packXY(x, y));
+                adjustPinCounts(x, y, 1);
+            }
+        }
+
+        for (int id = notes.size() - 1; id >= notesBefore; id--) {
+            int x = notes.x(id), y = notes.y(id);
+            grid.removeLast(id, x, y, noteW, noteH);
+            corners.remove(packXY(x, y));
+            trigrams.removeLast(id, notes.message(id));
+            IntList sameColor = byColor[notes.colorId(id)];
+            sameColor.truncate(sameColor.size() - 1);
+        }
+        notes.truncate(notesBefore, seqBefore);
+    }
+
     /* =========================
        GET helpers
        ========================= */
 
     // Safe snapshot of pins
-    public synchronized List<Pin> getPinsSnapshot() {
-        return new ArrayList<>(pins);
+    public List<Pin> getPinsSnapshot() {
+        long stamp = lock.readLock();
+        try {
+            long[] keys = pins.toArray();
+            List<Pin> result = new ArrayList<>(keys.length);
+            for (long key : keys) {
+                result.add(new Pin(unpackX(key), unpackY(key)));
+            }
+            return result;
+        } finally {
+            lock.unlockRead(stamp);
+        }
     }
 
     // Check if a note is pinned
-    public synchronized boolean isNotePinned(Note n) {
-        return isPinned(n);
+    public boolean isNotePinned(Note n) {
+        long stamp = lock.readLock();
+        try {
+            return isPinned(n);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Number of notes on the board (optimistic read when the lock supports it)
+    public int noteCount() {
+        long stamp = lock.tryOptimisticRead();
+        int count = notes.size();
+        if (lock.validate(stamp)) return count;
+
+        stamp = lock.readLock();
+        try {
+            return notes.size();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Number of pins on the board (optimistic read when the lock supports it)
+    public int pinCount() {
+        long stamp = lock.tryOptimisticRead();
+        int count = pins.size();
+        if (lock.validate(stamp)) return count;
+
+        stamp = lock.readLock();
+        try {
+            return pins.size();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Storage engine name, note count and approximate bytes per note
+    public String memoryReport() {
+        long stamp = lock.readLock();
+        try {
+            int count = notes.size();
+            long bytes = notes.estimatedBytes();
+            return "store=" + storeKind.name().toLowerCase()
+                    + " notes=" + count
+                    + " bytes=" + bytes
+                    + " bytesPerNote=" + (count == 0 ? 0 : bytes / count);
+        } finally {
+            lock.unlockRead(stamp);
+        }
     }
 
     // Return notes matching optional filters
-    public synchronized List<Note> getNotesFiltered(
+    public List<Note> getNotesFiltered(
             String colorFilter,
             Integer containsX,
             Integer containsY,
             String refersTo
     ) {
-        List<Note> result = new ArrayList<>();
+        long stamp = lock.readLock();
+        try {
+            IntList ids = filterNotes(colorFilter, containsX, containsY, refersTo, 0, notes.size(), Integer.MAX_VALUE);
+            List<Note> result = new ArrayList<>(ids.size());
+            for (int i = 0; i < ids.size(); i++) {
+                result.add(notes.note(ids.get(i)));
+            }
+            return result;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Notes matching optional filters together with their pinned flags.
+    // Built under one read lock, so the listing is a consistent view of the board.
+    public List<NoteView> queryNotes(
+            String colorFilter,
+            Integer containsX,
+            Integer containsY,
+            String refersTo
+    ) {
+        long stamp = lock.readLock();
+        try {
+            IntList ids = filterNotes(colorFilter, containsX, containsY, refersTo, 0, notes.size(), Integer.MAX_VALUE);
+            return views(ids, ids.size());
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Up to 'limit' matching notes posted after the cursor 'afterSeq' (0 = from the
+    // start) and no later than 'untilSeq', in post order. Only the page is built,
+    // so memory depends on 'limit', not on the board size. Each page is a
+    // consistent view on its own; notes removed between pages are simply not seen.
+    public Page queryPage(
+            String colorFilter,
+            Integer containsX,
+            Integer containsY,
+            String refersTo,
+            int afterSeq,
+            int untilSeq,
+            int limit
+    ) {
+        long stamp = lock.readLock();
+        try {
+            int fromId = firstIdAfter(afterSeq);
+            int toId = firstIdAfter(untilSeq);
+
+            // One extra match tells whether another page exists
+            int max = (limit == Integer.MAX_VALUE) ? limit : limit + 1;
+            IntList ids = filterNotes(colorFilter, containsX, containsY, refersTo, fromId, toId, max);
+            if (ids.size() <= limit) return new Page(views(ids, ids.size()), -1);
+
+            return new Page(views(ids, limit), notes.seq(ids.get(limit - 1)));
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Sequence number of the newest note ever posted (0 if none); a GET stream stops here
+    public int lastSeq() {
+        long stamp = lock.readLock();
+        try {
+            return notes.lastSeq();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // First 'count' ids as NoteViews (caller holds the read lock)
+    private List<NoteView> views(IntList ids, int count) {
+        List<NoteView> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int id = ids.get(i);
+            result.add(new NoteView(notes.note(id), notes.pinCount(id) > 0));
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    // Smallest id whose sequence number is greater than seq (seqs grow with the id)
+    private int firstIdAfter(int seq) {
+        int lo = 0, hi = notes.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (notes.seq(mid) <= seq) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    // First position in a sorted list holding a value >= id
+    private static int lowerBound(IntList list, int id) {
+        int lo = 0, hi = list.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (list.get(mid) < id) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    // Intersect two sorted candidate lists (null = all notes, missing cell = no notes)
+    private static IntList narrow(IntList current, IntList next) {
+        if (next == null) return new IntList(1);
+        if (current == null) return next;
+        return IntList.intersect(current, next);
+    }
+
+    // Ids in [fromId, toId) of the notes matching optional filters, in board order,
+    // stopping after 'limit' matches
+    private IntList filterNotes(
+            String colorFilter,
+            Integer containsX,
+            Integer containsY,
+            String refersTo,
+            int fromId,
+            int toId,
+            int limit
+    ) {
+        IntList result = new IntList();
+        boolean hasPoint = containsX != null && containsY != null;
+
+        // An unknown color matches nothing
+        int colorId = (colorFilter != null) ? colorId(colorFilter) : -1;
+        if (colorFilter != null && colorId < 0) return result;
+
+        // Encoded once, so the compact store can match refersTo= against its arena
+        byte[] refersToUtf8 = (refersTo != null) ? utf8(refersTo) : null;
+
+        // Intersect the candidate lists of every indexed filter; null means scan every note.
+        // contains= uses the point's grid cell, color= the color's note list and
+        // refersTo= the notes sharing all of its trigrams (if it is long enough).
+        IntList candidates = null;
+        if (hasPoint) {
+            candidates = narrow(candidates, grid.cellAt(containsX, containsY));
+            if (candidates.isEmpty()) return result;
+        }
+        if (colorFilter != null) {
+            candidates = narrow(candidates, byColor[colorId]);
+        }
+        if (refersTo != null) {
+            IntList matches = trigrams.candidates(refersTo);
+            if (matches != null) candidates = narrow(candidates, matches);
+        }
+        // Candidate lists are sorted, so the id range is a slice of them
+        int start = (candidates != null) ? lowerBound(candidates, fromId) : fromId;
+        int count = (candidates != null) ? lowerBound(candidates, toId) : toId;
 
-        for (Note n : notes) {
+        for (int i = start; i < count && result.size() < limit; i++) {
+            int id = (candidates != null) ? candidates.get(i) : i;
 
             // Filter by color
-            if (colorFilter != null && !n.color.equals(colorFilter))
+            if (colorFilter != null && notes.colorId(id) != colorId)
                 continue;
 
             // Filter by contains=x,y
-            if (containsX != null && containsY != null &&
-                !noteContainsPoint(n, containsX, containsY))
+            if (hasPoint && !noteContainsPoint(id, containsX, containsY))
                 continue;
 
             // Filter by refersTo substring
-            if (refersTo != null && !n.message.contains(refersTo))
+            if (refersTo != null && !notes.messageContains(id, refersTo, refersToUtf8))
                 continue;
 
-            result.add(n);
+            result.add(id);
         }
 
         return result;
@@ -0,0 +1,158 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Renders the server's counters for the STATS command and the metrics endpoint.
+ *
+ * STATS answers one connection, so it covers the server plus that client's
+ * board, as "STAT <group> key=value ..." lines. The endpoint (MetricsEndpoint)
+ * covers every board in the Prometheus text format, with latencies in seconds
+ * and percentiles as quantile labels. Nothing is cached: both read the live
+ * counters, and board note / pin counts take that board's read lock briefly.
+ */
+final class StatsReport {
+
+    // Percentiles reported for every histogram
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+    private static final String[] QUANTILE_KEYS = { "p50", "p90", "p99", "p999" };
+
+    private StatsReport() {
+    }
+
+    /* =========================
+       STATS
+       ========================= */
+
+    static List<String> lines(ServerMetrics metrics, BoardRegistry boards, RequestLog log,
+                              String boardName, SharedBboard board) {
+        List<String> lines = new ArrayList<>();
+        lines.add("STAT connections active=" + metrics.activeConnections()
+                + " accepted=" + metrics.acceptedConnections()
+                + " queued=" + metrics.queuedConnections()
+                + " rejected=" + metrics.rejectedConnections());
+        lines.add("STAT traffic bytes_in=" + metrics.bytesIn() + " bytes_out=" + metrics.bytesOut());
+        lines.add("STAT boards count=" + boards.size());
+        lines.add("STAT board name=" + boardName + " notes=" + board.noteCount() + " pins=" + board.pinCount());
+        lines.add("STAT lock board=" + boardName
+                + summary(" wait_", board.lockWaits()) + summary(" hold_", board.lockHolds()));
+
+        for (Command.Type type : Command.Type.values()) {
+            LatencyHistogram h = metrics.latency(type);
+            if (h.count() == 0) continue;
+            lines.add("STAT command name=" + type.name() + summary(" ", h) + " errors=" + metrics.errors(type));
+        }
+
+        Follower follower = boards.follower();
+        lines.add("STAT replication " + (follower != null
+                ? follower.report()
+                : "role=leader position=" + boards.defaultBoard().position()
+                    + " followers=" + boards.defaultBoard().followerCount()));
+        lines.add("STAT log dropped=" + log.droppedEntries());
+        return lines;
+    }
+
+    // "count=.. mean_us=.. p50_us=.. ... max_us=..", each key behind 'prefix'
+    private static String summary(String prefix, LatencyHistogram h) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(prefix).append("count=").append(h.count());
+        sb.append(prefix).append("mean_us=").append(micros(h.mean()));
+        for (int i = 0; i < QUANTILES.length; i++) {
+            sb.append(prefix).append(QUANTILE_KEYS[i]).append("_us=").append(micros(h.percentile(QUANTILES[i])));
+        }
+        sb.append(prefix).append("max_us=").append(micros(h.max()));
+        return sb.toString();
+    }
+
+    private static String micros(long nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / 1000.0);
+    }
+
+    /* =========================
+       Prometheus text format
+       ========================= */
+
+    static String prometheus(ServerMetrics metrics, BoardRegistry boards, RequestLog log) {
+        StringBuilder sb = new StringBuilder(4096);
+
+        gauge(sb, "bboard_connections_active", "Open client connections", metrics.activeConnections());
+        gauge(sb, "bboard_connections_waiting", "Connections waiting for a worker", metrics.waitingConnections());
+        counter(sb, "bboard_connections_accepted_total", "Connections accepted", metrics.acceptedConnections());
+        counter(sb, "bboard_connections_rejected_total", "Connections turned away as busy", metrics.rejectedConnections());
+        counter(sb, "bboard_bytes_in_total", "Bytes read from clients", metrics.bytesIn());
+        counter(sb, "bboard_bytes_out_total", "Bytes written to clients", metrics.bytesOut());
+        counter(sb, "bboard_log_dropped_total", "Server log entries dropped", log.droppedEntries());
+        gauge(sb, "bboard_boards", "Boards hosted", boards.size());
+
+        Map<String, SharedBboard> all = boards.boards();
+        help(sb, "bboard_notes", "gauge", "Notes on a board");
+        for (Map.Entry<String, SharedBboard> e : all.entrySet()) {
+            sb.append("bboard_notes{board=\"").append(e.getKey()).append("\"} ").append(e.getValue().noteCount()).append('\n');
+        }
+        help(sb, "bboard_pins", "gauge", "Pins on a board");
+        for (Map.Entry<String, SharedBboard> e : all.entrySet()) {
+            sb.append("bboard_pins{board=\"").append(e.getKey()).append("\"} ").append(e.getValue().pinCount()).append('\n');
+        }
+        help(sb, "bboard_lock_wait_seconds", "summary", "Time spent waiting for a board lock");
+        for (Map.Entry<String, SharedBboard> e : all.entrySet()) {
+            summary(sb, "bboard_lock_wait_seconds", "board=\"" + e.getKey() + "\"", e.getValue().lockWaits());
+        }
+        help(sb, "bboard_lock_hold_seconds", "summary", "Time a board's write lock was held");
+        for (Map.Entry<String, SharedBboard> e : all.entrySet()) {
+            summary(sb, "bboard_lock_hold_seconds", "board=\"" + e.getKey() + "\"", e.getValue().lockHolds());
+        }
+
+        help(sb, "bboard_command_seconds", "summary", "Time to handle a command");
+        for (Command.Type type : Command.Type.values()) {
+            LatencyHistogram h = metrics.latency(type);
+            if (h.count() > 0) summary(sb, "bboard_command_seconds", "cmd=\"" + type.name() + "\"", h);
+        }
+        help(sb, "bboard_command_errors_total", "counter", "Commands answered with ERROR");
+        for (Command.Type type : Command.Type.values()) {
+            if (metrics.latency(type).count() == 0) continue;
+            sb.append("bboard_command_errors_total{cmd=\"").append(type.name()).append("\"} ")
+              .append(metrics.errors(type)).append('\n');
+        }
+
+        Follower follower = boards.follower();
+        if (follower != null) {
+            gauge(sb, "bboard_replication_lag_records", "Change records the leader has that this replica lacks", follower.lagRecords());
+            gauge(sb, "bboard_replication_lag_milliseconds", "How far this replica trails its leader", follower.lagMillis());
+        } else {
+            gauge(sb, "bboard_replication_position", "Change records produced on the main board", boards.defaultBoard().position());
+            gauge(sb, "bboard_replication_followers", "Replicas following this server", boards.defaultBoard().followerCount());
+        }
+        return sb.toString();
+    }
+
+    private static void help(StringBuilder sb, String name, String type, String text) {
+        sb.append("# HELP ").append(name).append(' ').append(text).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void gauge(StringBuilder sb, String name, String text, long value) {
+        help(sb, name, "gauge", text);
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void counter(StringBuilder sb, String name, String text, long value) {
+        help(sb, name, "counter", text);
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void summary(StringBuilder sb, String name, String labels, LatencyHistogram h) {
+        for (double q : QUANTILES) {
+            sb.append(name).append('{').append(labels).append(",quantile=\"").append(q).append("\"} ")
+              .append(seconds(h.percentile(q))).append('\n');
+        }
+        sb.append(name).append("_sum{").append(labels).append("} ").append(seconds(h.sum())).append('\n');
+        sb.append(name).append("_count{").append(labels).append("} ").append(h.count()).append('\n');
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+    }
+}
@@ -0,0 +1,55 @@
+package server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * One SUBSCRIBE-d client's queue of board events.
+ *
+ * The board offers events while holding its write lock, so offering never
+ * blocks: when the queue is full the backlog is thrown away and replaced by
+ * a single RESYNC event, and nothing more is queued until the client has
+ * taken it. The client is then expected to re-read the board with GET.
+ * A slow subscriber therefore costs memory up to its capacity, never time
+ * on the mutation path.
+ */
+public class Subscription {
+
+    // Sent in place of the events that were dropped
+    public static final String RESYNC = "EVENT RESYNC";
+
+    private final ArrayBlockingQueue<String> queue;
+
+    // Set when events were dropped, cleared once RESYNC has been taken
+    private volatile boolean resyncPending;
+
+    Subscription(int capacity) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    // Producer side (board, under its write lock)
+    void offer(String event) {
+        if (resyncPending) return;
+        if (!queue.offer(event)) resync();
+    }
+
+    // Producer side: drop the backlog and tell the client to re-read the board
+    void resync() {
+        queue.clear();
+        resyncPending = true;
+        queue.offer(RESYNC);
+    }
+
+    // Next event, waiting for one if necessary
+    public String take() throws InterruptedException {
+        String event = queue.take();
+        if (event == RESYNC) resyncPending = false;
+        return event;
+    }
+
+    // Next event if one is queued, otherwise null
+    public String poll() {
+        String event = queue.poll();
+        if (event == RESYNC) resyncPending = false;
+        return event;
+    }
+}
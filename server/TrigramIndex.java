@@ -0,0 +1,79 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Inverted index from 3-character substrings of note messages to note ids.
+ *
+ * A refersTo= query containing a trigram can only match notes that contain it,
+ * so intersecting the posting lists of the query's trigrams gives a small
+ * candidate set that is then verified with NoteStore.messageContains (against
+ * the arena bytes in the compact store).
+ * Posting lists are sorted because note ids are added in increasing order.
+ * Not thread-safe: callers guard it with the board lock.
+ */
+final class TrigramIndex {
+
+    static final int GRAM = 3;
+
+    // Trigram key -> position of its posting list in 'postings'
+    private final LongIntMap slots = new LongIntMap();
+    private final List<IntList> postings = new ArrayList<>();
+
+    // Three UTF-16 chars packed into one long
+    private static long gram(String s, int i) {
+        return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+    }
+
+    // Index a note's message; ids must be added in increasing order
+    void add(int id, String message) {
+        for (int i = 0; i + GRAM <= message.length(); i++) {
+            long key = gram(message, i);
+            int slot = slots.get(key);
+
+            if (slot == LongIntMap.MISSING) {
+                slot = postings.size();
+                postings.add(new IntList(1));
+                slots.put(key, slot);
+            }
+
+            // A message can repeat a trigram; keep each id once
+            IntList list = postings.get(slot);
+            if (list.isEmpty() || list.last() != id) list.add(id);
+        }
+    }
+
+    // Unindex the newest note again (its id must be the last one added)
+    void removeLast(int id, String message) {
+        for (int i = 0; i + GRAM <= message.length(); i++) {
+            int slot = slots.get(gram(message, i));
+            if (slot == LongIntMap.MISSING) continue;
+
+            IntList list = postings.get(slot);
+            if (!list.isEmpty() && list.last() == id) list.truncate(list.size() - 1);
+        }
+    }
+
+    // Candidate note ids for a substring query, or null if the query is too short to use the index.
+    // The returned list may be shared with the index and must not be modified.
+    IntList candidates(String query) {
+        if (query.length() < GRAM) return null;
+
+        IntList result = null;
+        for (int i = 0; i + GRAM <= query.length(); i++) {
+            int slot = slots.get(gram(query, i));
+            if (slot == LongIntMap.MISSING) return new IntList(1);
+
+            IntList list = postings.get(slot);
+            result = (result == null) ? list : IntList.intersect(result, list);
+            if (result.isEmpty()) break;
+        }
+        return result;
+    }
+
+    void clear() {
+        slots.clear();
+        postings.clear();
+    }
+}
@@ -0,0 +1,503 @@
+package server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of board mutations (POST / PIN / UNPIN / SHAKE / CLEAR),
+ * replayed on startup to rebuild the board.
+ *
+ * SharedBboard appends a record while it still holds its write lock, so the log
+ * order is the order the changes were applied in. Appending only copies bytes
+ * into a memory buffer; the caller then waits for durability after releasing
+ * the board lock. How long that wait is depends on the durability mode:
+ *
+ *   NONE     a background thread writes batches to the file, nobody waits and
+ *            nothing is forced (a crash can lose the last moments of changes)
+ *   BATCHED  group commit: the background thread writes everything appended so
+ *            far and forces it with one fsync, then releases every client whose
+ *            record was in that batch. Concurrent clients share fsyncs.
+ *   PER_OP   every record is written and forced on its own before the board lock
+ *            is released (one fsync per change, no batching)
+ *
+ * The log is a series of segment files <base>.1, <base>.2, ... A snapshot rolls
+ * the log over to a new segment at the moment it copies the board, and once the
+ * snapshot is safely on disk every older segment is deleted (see BoardSnapshot).
+ *
+ * Segment layout: a magic/version header, then records of
+ * [int bodyLength][int crc32(body)][body], body = type byte + fields.
+ * Replay stops at the first torn or corrupt record of the last segment and
+ * cuts the file there; damage in an older segment is an error.
+ *
+ * The first write or force error stops the log for good: nothing is written
+ * after it (so the file never has a gap followed by later records), every record
+ * from the failed one on reports not durable, and failed() tells the board to
+ * refuse further changes.
+ */
+public class WriteAheadLog implements Closeable {
+
+    public enum Durability { NONE, BATCHED, PER_OP }
+
+    // Record types
+    static final byte POST = 1;
+    static final byte PIN = 2;
+    static final byte UNPIN = 3;
+    static final byte SHAKE = 4;
+    static final byte CLEAR = 5;
+
+    private static final int MAGIC = 0x42425741; // "BBWA"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+
+    private final Path base;
+    private final Durability durability;
+    private final CRC32 crc = new CRC32();
+
+    // Current segment; swapped by roll() (guarded by 'this')
+    private long segment;
+    private FileChannel channel;
+
+    // Records appended but not yet handed to the writer; guarded by 'this'
+    private byte[] pending = new byte[64 * 1024];
+    private int pendingSize;
+
+    // True while the writer thread is writing a batch outside the monitor
+    private boolean writing;
+
+    // Records are numbered 1, 2, 3, ... in append order (replayed ones included)
+    private long appendedLsn;   // last record appended (guarded by 'this')
+    private long durableLsn;    // last record written (and forced, unless NONE)
+    private long replayed;
+    // First write / force error; once set nothing more is written
+    private volatile IOException failure;
+    private boolean closed;
+
+    private final Thread writer;
+
+    // Replays go through this so the log does not depend on SharedBboard's API
+    public interface Replayer {
+        void post(int x, int y, String color, String message);
+        void pin(int x, int y);
+        void unpin(int x, int y);
+        void shake();
+        void clear();
+    }
+
+    private WriteAheadLog(Path base, Durability durability) {
+        this.base = base;
+        this.durability = durability;
+
+        if (durability != Durability.PER_OP) {
+            writer = new Thread(this::writeLoop, "wal-writer");
+            writer.setDaemon(true);
+        } else {
+            writer = null;
+        }
+    }
+
+    // Parse a durability mode from the command line (none / batched / per-op)
+    static Durability parseDurability(String name) {
+        return Durability.valueOf(name.trim().toUpperCase().replace('-', '_'));
+    }
+
+    // Open the log at 'base', replay segments numbered fromSegment and up into
+    // 'target' (older ones are already covered by a snapshot and get deleted),
+    // and continue appending after the last record
+    public static WriteAheadLog open(Path base, long fromSegment, Durability durability, Replayer target)
+            throws IOException {
+        WriteAheadLog wal = new WriteAheadLog(base, durability);
+        deleteSegmentsBefore(base, fromSegment);
+
+        long[] segments = listSegments(base);
+        try {
+            for (int i = 0; i < segments.length; i++) {
+                boolean last = i == segments.length - 1;
+                FileChannel ch = FileChannel.open(segmentPath(base, segments[i]),
+                        StandardOpenOption.READ, StandardOpenOption.WRITE);
+                try {
+                    wal.replay(ch, target, last);
+                } catch (IOException | RuntimeException e) {
+                    ch.close();
+                    throw e;
+                }
+                if (last) {
+                    wal.segment = segments[i];
+                    wal.channel = ch;
+                } else {
+                    ch.close();
+                }
+            }
+            if (wal.channel == null) {
+                wal.segment = fromSegment;
+                wal.channel = createSegment(base, fromSegment);
+            }
+        } catch (IOException | RuntimeException e) {
+            if (wal.channel != null) wal.channel.close();
+            throw e;
+        }
+
+        wal.replayed = wal.appendedLsn;
+        if (wal.writer != null) wal.writer.start();
+        return wal;
+    }
+
+    // Number of records replayed by open()
+    public long replayedRecords() {
+        return replayed;
+    }
+
+    // Number of the last record appended so far
+    public synchronized long lastLsn() {
+        return appendedLsn;
+    }
+
+    // True once a write or force failed; later records are never written
+    public boolean failed() {
+        return failure != null;
+    }
+
+    /* =========================
+       Segments
+       ========================= */
+
+    static Path segmentPath(Path base, long n) {
+        return base.resolveSibling(base.getFileName() + "." + n);
+    }
+
+    // Segment numbers present on disk, ascending
+    private static long[] listSegments(Path base) throws IOException {
+        Path dir = base.toAbsolutePath().getParent();
+        String prefix = base.getFileName() + ".";
+        List<Long> found = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, base.getFileName() + ".*")) {
+            for (Path f : files) {
+                String suffix = f.getFileName().toString().substring(prefix.length());
+                if (!suffix.isEmpty() && suffix.chars().allMatch(Character::isDigit)) {
+                    found.add(Long.parseLong(suffix));
+                }
+            }
+        }
+        long[] result = new long[found.size()];
+        for (int i = 0; i < result.length; i++) result[i] = found.get(i);
+        Arrays.sort(result);
+        return result;
+    }
+
+    private static void deleteSegmentsBefore(Path base, long n) throws IOException {
+        for (long s : listSegments(base)) {
+            if (s < n) Files.deleteIfExists(segmentPath(base, s));
+        }
+    }
+
+    // Drop the segments a snapshot has made redundant
+    public void deleteSegmentsBefore(long n) throws IOException {
+        deleteSegmentsBefore(base, n);
+    }
+
+    private static FileChannel createSegment(Path base, long n) throws IOException {
+        FileChannel ch = FileChannel.open(segmentPath(base, n),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION);
+        header.flip();
+        while (header.hasRemaining()) ch.write(header);
+        ch.force(true);
+        return ch;
+    }
+
+    // Finish the current segment and continue in a new one. The caller holds the
+    // board lock, so no record is appended meanwhile; returns the new segment number.
+    synchronized long roll() throws IOException {
+        boolean interrupted = false;
+        while (writing) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        if (failure != null) throw new IOException("Log is stopped after a write error", failure);
+
+        // Everything appended so far goes into the old segment, forced
+        try {
+            writeAll(channel, ByteBuffer.wrap(pending, 0, pendingSize));
+            channel.force(false);
+        } catch (IOException e) {
+            fail(e);
+            throw e;
+        }
+        pendingSize = 0;
+        durableLsn = appendedLsn;
+        notifyAll();
+
+        FileChannel next = createSegment(base, segment + 1);
+        channel.close();
+        channel = next;
+        return ++segment;
+    }
+
+    /* =========================
+       Replay
+       ========================= */
+
+    private void replay(FileChannel ch, Replayer target, boolean last) throws IOException {
+        long size = ch.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(ch, header, 0);
+        header.flip();
+        if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION) {
+            throw new IOException("Not a board log (bad header)");
+        }
+
+        long pos = HEADER_SIZE;
+        ByteBuffer prefix = ByteBuffer.allocate(8);
+        byte[] body = new byte[256];
+
+        while (true) {
+            prefix.clear();
+            if (readFully(ch, prefix, pos) < 8) break;
+            prefix.flip();
+            int len = prefix.getInt();
+            int sum = prefix.getInt();
+            if (len <= 0 || pos + 8 + len > size) break;
+
+            if (body.length < len) body = new byte[Math.max(len, body.length * 2)];
+            ByteBuffer b = ByteBuffer.wrap(body, 0, len);
+            if (readFully(ch, b, pos + 8) < len) break;
+
+            crc.reset();
+            crc.update(body, 0, len);
+            if ((int) crc.getValue() != sum) break;
+
+            apply(body, len, target);
+            pos += 8 + len;
+            appendedLsn++;
+        }
+
+        if (pos < size) {
+            // A torn tail (a record cut short by a crash) can only be at the very end
+            if (!last) throw new IOException("Log segment is damaged at offset " + pos);
+            ch.truncate(pos);
+        }
+        ch.position(pos);
+        durableLsn = appendedLsn;
+    }
+
+    private static int readFully(FileChannel ch, ByteBuffer buf, long at) throws IOException {
+        int total = 0;
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, at + total);
+            if (n < 0) break;
+            total += n;
+        }
+        return total;
+    }
+
+    // Apply the record in b[0, len) to 'target'
+    static void apply(byte[] b, int len, Replayer target) {
+        ByteBuffer in = ByteBuffer.wrap(b, 0, len);
+        switch (in.get()) {
+            case POST: {
+                int x = in.getInt(), y = in.getInt();
+                int colorLen = in.getInt();
+                String color = new String(b, in.position(), colorLen, StandardCharsets.UTF_8);
+                int msgStart = in.position() + colorLen;
+                target.post(x, y, color, new String(b, msgStart, len - msgStart, StandardCharsets.UTF_8));
+                break;
+            }
+            case PIN:   target.pin(in.getInt(), in.getInt()); break;
+            case UNPIN: target.unpin(in.getInt(), in.getInt()); break;
+            case SHAKE: target.shake(); break;
+            case CLEAR: target.clear(); break;
+            default: throw new IllegalStateException("Unknown log record type");
+        }
+    }
+
+    /* =========================
+       Records (also shipped to followers, see ReplicationFeed)
+       ========================= */
+
+    static byte[] postRecord(int x, int y, String color, String message) {
+        byte[] c = color.getBytes(StandardCharsets.UTF_8);
+        byte[] m = message.getBytes(StandardCharsets.UTF_8);
+        byte[] body = new byte[1 + 4 + 4 + 4 + c.length + m.length];
+        ByteBuffer.wrap(body).put(POST).putInt(x).putInt(y).putInt(c.length).put(c).put(m);
+        return body;
+    }
+
+    static byte[] pinRecord(int x, int y) {
+        return pointRecord(PIN, x, y);
+    }
+
+    static byte[] unpinRecord(int x, int y) {
+        return pointRecord(UNPIN, x, y);
+    }
+
+    static byte[] shakeRecord() {
+        return new byte[] { SHAKE };
+    }
+
+    static byte[] clearRecord() {
+        return new byte[] { CLEAR };
+    }
+
+    private static byte[] pointRecord(byte type, int x, int y) {
+        byte[] body = new byte[9];
+        ByteBuffer.wrap(body).put(type).putInt(x).putInt(y);
+        return body;
+    }
+
+    /* =========================
+       Appending (caller holds the board write lock)
+       ========================= */
+
+    // Append one record; returns its number, to pass to awaitDurable(). After a
+    // write error the record is only numbered (it will never be durable).
+    synchronized long append(byte[] body) {
+        if (failure != null) return ++appendedLsn;
+
+        crc.reset();
+        crc.update(body, 0, body.length);
+
+        int need = pendingSize + 8 + body.length;
+        if (need > pending.length) pending = Arrays.copyOf(pending, Math.max(need, pending.length * 2));
+        ByteBuffer.wrap(pending, pendingSize, 8).putInt(body.length).putInt((int) crc.getValue());
+        System.arraycopy(body, 0, pending, pendingSize + 8, body.length);
+        pendingSize = need;
+        long lsn = ++appendedLsn;
+
+        if (durability == Durability.PER_OP) {
+            // Written and forced right here, one record at a time
+            try {
+                writeAll(channel, ByteBuffer.wrap(pending, 0, pendingSize));
+                channel.force(false);
+                durableLsn = lsn;
+            } catch (IOException e) {
+                fail(e);
+            }
+            pendingSize = 0;
+        } else {
+            notifyAll(); // wake the writer
+        }
+        return lsn;
+    }
+
+    /* =========================
+       Durability
+       ========================= */
+
+    // Wait (after releasing the board lock) until record 'lsn' is as durable as the
+    // mode promises. False if the log could not be written (for every record
+    // from the first one that failed on).
+    public boolean awaitDurable(long lsn) {
+        if (durability == Durability.NONE) return failure == null;
+
+        synchronized (this) {
+            boolean interrupted = false;
+            while (durableLsn < lsn && failure == null && !closed) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+            return durableLsn >= lsn;
+        }
+    }
+
+    // Background writer for NONE / BATCHED: every pass takes all pending records.
+    // Exits on the first error, so no later batch lands behind a lost one.
+    private void writeLoop() {
+        byte[] spare = new byte[pending.length];
+        while (true) {
+            byte[] batch;
+            int size;
+            long upTo;
+            FileChannel target;
+            synchronized (this) {
+                while (pendingSize == 0 && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (pendingSize == 0) return; // closed and drained
+
+                // Swap buffers so appenders keep going while this batch is written
+                batch = pending;
+                size = pendingSize;
+                upTo = appendedLsn;
+                pending = (spare.length >= batch.length) ? spare : new byte[batch.length];
+                pendingSize = 0;
+                target = channel;
+                writing = true;
+            }
+
+            IOException error = null;
+            try {
+                writeAll(target, ByteBuffer.wrap(batch, 0, size));
+                if (durability == Durability.BATCHED) target.force(false);
+            } catch (IOException e) {
+                error = e;
+            }
+            spare = batch;
+
+            synchronized (this) {
+                writing = false;
+                if (error != null) {
+                    fail(error);
+                    return;
+                }
+                durableLsn = upTo;
+                notifyAll();
+            }
+        }
+    }
+
+    // Stop the log: drop whatever is pending and wake every waiter (caller holds 'this')
+    private void fail(IOException e) {
+        if (failure == null) failure = e;
+        pendingSize = 0;
+        notifyAll();
+    }
+
+    private static void writeAll(FileChannel ch, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) ch.write(buf);
+    }
+
+    // Write out whatever is pending, force it, and close the file
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        if (writer != null) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            try {
+                if (failure == null) channel.force(true);
+            } finally {
+                channel.close();
+            }
+        }
+    }
+}
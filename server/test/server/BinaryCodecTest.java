@@ -0,0 +1,95 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class BinaryCodecTest {
+
+    // More colors than fit in a byte, so color ids above 255 have to survive the wire
+    private static final String[] COLORS = new String[300];
+    static {
+        for (int i = 0; i < COLORS.length; i++) COLORS[i] = "c" + i;
+    }
+
+    private final SharedBboard board = new SharedBboard(100, 50, 10, 5, COLORS, BoardLock.Strategy.MONITOR,
+            NoteStore.Kind.OBJECT);
+    private final CommandProcessor processor = new CommandProcessor(
+            new BoardRegistry(board, BoardLock.Strategy.MONITOR, NoteStore.Kind.OBJECT, 8),
+            new ServerMetrics(), new RequestLog(RequestLog.Level.OFF, 0, 16), "test", true);
+
+    private static byte[] post(int x, int y, int colorId, String message) {
+        byte[] msg = message.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(13 + msg.length)
+                .put(BinaryCodec.POST).putInt(x).putInt(y).putInt(colorId).put(msg).array();
+    }
+
+    private static byte[] getColor(int colorId) {
+        return ByteBuffer.allocate(6).put(BinaryCodec.GET).put((byte) BinaryCodec.FILTER_COLOR).putInt(colorId).array();
+    }
+
+    // Frames the server sent back, read the way the client reads them
+    private static DataInputStream replies(byte[] frame, CommandProcessor processor) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        processor.handleFrame(frame, 0, frame.length, out);
+        return new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    private static String reply(DataInputStream in) throws IOException {
+        byte[] frame = new byte[in.readInt()];
+        in.readFully(frame);
+        assertEquals(BinaryCodec.REPLY, frame[0]);
+        return new String(frame, 1, frame.length - 1, StandardCharsets.UTF_8);
+    }
+
+    // "x y color message pinned" per note of a NOTES frame
+    private static List<String> notes(DataInputStream in) throws IOException {
+        in.readInt();
+        assertEquals(BinaryCodec.NOTES, in.readByte());
+        List<String> notes = new ArrayList<>();
+        for (int i = in.readInt(); i > 0; i--) {
+            int x = in.readInt(), y = in.readInt(), colorId = in.readInt();
+            boolean pinned = in.readByte() != 0;
+            byte[] msg = new byte[in.readInt()];
+            in.readFully(msg);
+            notes.add(x + " " + y + " " + COLORS[colorId] + " " + new String(msg, StandardCharsets.UTF_8) + " " + pinned);
+        }
+        assertEquals(-1, in.readInt());
+        return notes;
+    }
+
+    private void switchToBinary() {
+        StringWriter text = new StringWriter();
+        processor.handle("BINARY", new PrintWriter(text, true));
+        assertEquals("OK BINARY", text.toString().trim());
+    }
+
+    @Test
+    void colorIdsPastOneByteRoundTrip() throws IOException {
+        switchToBinary();
+        assertEquals("OK NOTE_POSTED", reply(replies(post(0, 0, 255, "edge of a byte"), processor)));
+        assertEquals("OK NOTE_POSTED", reply(replies(post(10, 0, 256, "past a byte"), processor)));
+        assertEquals("OK NOTE_POSTED", reply(replies(post(20, 0, 299, "last color"), processor)));
+        assertEquals("OK NOTE_POSTED", reply(replies(post(30, 0, 0, "first color"), processor)));
+        assertEquals("ERROR COLOR_NOT_SUPPORTED 300", reply(replies(post(40, 0, 300, "no such color"), processor)));
+
+        assertEquals(List.of("10 0 c256 past a byte false"), notes(replies(getColor(256), processor)));
+        assertEquals(List.of("20 0 c299 last color false"), notes(replies(getColor(299), processor)));
+        assertEquals(List.of("30 0 c0 first color false"), notes(replies(getColor(0), processor)));
+        assertEquals(List.of(), notes(replies(getColor(300), processor)));
+
+        byte[] all = { BinaryCodec.GET, 0 };
+        assertEquals(List.of("0 0 c255 edge of a byte false", "10 0 c256 past a byte false",
+                "20 0 c299 last color false", "30 0 c0 first color false"), notes(replies(all, processor)));
+    }
+}
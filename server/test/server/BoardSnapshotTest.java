@@ -0,0 +1,97 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BoardSnapshotTest {
+
+    @TempDir
+    Path dir;
+
+    // More colors than fit in a byte, so color ids above 255 have to survive
+    private static String[] manyColors() {
+        String[] colors = new String[300];
+        for (int i = 0; i < colors.length; i++) colors[i] = "c" + i;
+        return colors;
+    }
+
+    private static SharedBboard board(String[] colors, NoteStore.Kind kind) {
+        return new SharedBboard(100, 50, 10, 5, colors, BoardLock.Strategy.MONITOR, kind);
+    }
+
+    private static void fill(SharedBboard board) {
+        board.post(0, 0, "c0", "first");
+        board.post(10, 0, "c255", "edge of a byte");
+        board.post(20, 0, "c256", "past a byte");
+        board.post(30, 5, "c299", "last color, ünïcödé");
+        board.pin(21, 1);
+        board.pin(1, 1);
+        board.pin(2, 2);
+    }
+
+    @Test
+    void fileRoundTrip() throws IOException {
+        Path log = dir.resolve("board.log");
+        SharedBboard board = board(manyColors(), NoteStore.Kind.OBJECT);
+        WriteAheadLog wal = board.openLog(log, WriteAheadLog.Durability.BATCHED);
+        fill(board);
+        board.snapshot();
+        wal.close();
+
+        SharedBboard reopened = board(manyColors(), NoteStore.Kind.OBJECT);
+        WriteAheadLog again = reopened.openLog(log, WriteAheadLog.Durability.BATCHED);
+        assertEquals(0, again.replayedRecords());
+        assertEquals(SharedBboardTest.contents(board), SharedBboardTest.contents(reopened));
+        again.close();
+    }
+
+    @Test
+    void compactStoreRoundTrip() throws IOException {
+        Path log = dir.resolve("compact.log");
+        SharedBboard board = SharedBboardTest.board(NoteStore.Kind.COMPACT);
+        WriteAheadLog wal = board.openLog(log, WriteAheadLog.Durability.BATCHED);
+        board.post(0, 0, "red", "a");
+        board.post(10, 0, "green", "b");
+        board.pin(11, 1);
+        board.snapshot();
+        wal.close();
+
+        SharedBboard reopened = SharedBboardTest.board(NoteStore.Kind.COMPACT);
+        reopened.openLog(log, WriteAheadLog.Durability.BATCHED).close();
+        assertEquals(SharedBboardTest.contents(board), SharedBboardTest.contents(reopened));
+
+        // Pin counts came back with the notes: SHAKE keeps the pinned one
+        reopened.shake();
+        assertEquals(List.of("NOTE 10 0 green b true", "PIN 11 1"), SharedBboardTest.contents(reopened));
+    }
+
+    // The image a leader sends a new follower uses the same format
+    @Test
+    void replicaImageRoundTrip() throws IOException {
+        SharedBboard leader = board(manyColors(), NoteStore.Kind.OBJECT);
+        fill(leader);
+        SharedBboard.Replication replication = leader.replicate(16);
+
+        SharedBboard follower = board(manyColors(), NoteStore.Kind.OBJECT);
+        follower.post(50, 20, "c1", "replaced by the image");
+        follower.loadReplica(ByteBuffer.wrap(replication.image));
+        assertEquals(SharedBboardTest.contents(leader), SharedBboardTest.contents(follower));
+    }
+
+    @Test
+    void differentConfigurationIsRejected() throws IOException {
+        SharedBboard leader = board(manyColors(), NoteStore.Kind.OBJECT);
+        fill(leader);
+        byte[] image = leader.replicate(16).image;
+
+        SharedBboard other = SharedBboardTest.board(NoteStore.Kind.OBJECT);
+        assertThrows(IOException.class, () -> other.loadReplica(ByteBuffer.wrap(image)));
+    }
+}
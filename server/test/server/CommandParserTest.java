@@ -0,0 +1,106 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+class CommandParserTest {
+
+    private static final int ROUNDS = 100_000;
+
+    // A POST keeps its message, which costs one String: header plus byte[] of a short text
+    private static final long MESSAGE_BYTES = 64;
+
+    private final CommandParser parser = new CommandParser(SharedBboardTest.COLORS);
+    private final Command cmd = new Command();
+
+    private static byte[] bytes(String line) {
+        return line.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private Command parse(String line) {
+        byte[] b = bytes(line);
+        parser.parse(b, 0, b.length, cmd);
+        return cmd;
+    }
+
+    // Bytes this thread allocates per parse of 'line', after a warm-up
+    private long allocatedPerParse(String line) {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        byte[] b = bytes(line);
+        for (int i = 0; i < ROUNDS; i++) parser.parse(b, 0, b.length, cmd);
+
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < ROUNDS; i++) parser.parse(b, 0, b.length, cmd);
+        long after = threads.getThreadAllocatedBytes(thread);
+        return (after - before) / ROUNDS;
+    }
+
+    @Test
+    void parsesPinUnpinAndPost() {
+        assertEquals(Command.Type.PIN, parse("pin 12 +7\r").type);
+        assertEquals(12, cmd.x);
+        assertEquals(7, cmd.y);
+
+        assertEquals(Command.Type.UNPIN, parse("  UNPIN 0 -0").type);
+        assertEquals(0, cmd.y);
+
+        assertEquals(Command.Type.POST, parse("POST 3 4 BLUE  hello   there ").type);
+        assertEquals(1, cmd.colorId);
+        assertEquals("hello   there", cmd.message);
+
+        assertEquals(-1, parse("POST 3 4 purple hi").colorId);
+        assertEquals("purple", cmd.colorName);
+
+        assertEquals("ERROR INVALID_FORMAT PIN requires non-negative integer coordinates", parse("PIN 1 x").error);
+        assertEquals("ERROR INVALID_FORMAT UNPIN requires x and y", parse("UNPIN 1 2 3").error);
+    }
+
+    // No String (or anything else) per token: PIN and UNPIN allocate nothing,
+    // POST only its message
+    @Test
+    void pinUnpinAndPostDoNotAllocatePerToken() {
+        assertEquals(0, allocatedPerParse("PIN 12345 678"));
+        assertEquals(0, allocatedPerParse("UNPIN 12345 678"));
+        long post = allocatedPerParse("POST 12345 678 green hi");
+        assertTrue(post <= MESSAGE_BYTES, "POST allocates " + post + " bytes per parse");
+    }
+
+    // SHAKE and CLEAR with arguments are refused before they touch the board
+    @Test
+    void shakeAndClearWithArgumentsDoNotRun() {
+        assertEquals("ERROR INVALID_FORMAT SHAKE takes no arguments", parse("SHAKE x").error);
+        assertEquals(Command.Type.INVALID, cmd.type);
+        assertEquals("ERROR INVALID_FORMAT CLEAR takes no arguments", parse("CLEAR now").error);
+        assertEquals(Command.Type.INVALID, cmd.type);
+
+        SharedBboard board = SharedBboardTest.board(NoteStore.Kind.OBJECT);
+        board.post(0, 0, "red", "unpinned");
+        board.post(50, 40, "red", "pinned");
+        board.pin(51, 41);
+        CommandProcessor processor = new CommandProcessor(
+                new BoardRegistry(board, BoardLock.Strategy.MONITOR, NoteStore.Kind.OBJECT, 8),
+                new ServerMetrics(), new RequestLog(RequestLog.Level.OFF, 0, 16), "test", true);
+        StringWriter replies = new StringWriter();
+        PrintWriter out = new PrintWriter(replies);
+        processor.handle("SHAKE x", out);
+        processor.handle("CLEAR now", out);
+        out.flush();
+
+        assertEquals("ERROR INVALID_FORMAT SHAKE takes no arguments" + System.lineSeparator()
+                + "ERROR INVALID_FORMAT CLEAR takes no arguments" + System.lineSeparator(), replies.toString());
+        assertEquals(2, board.noteCount());
+        assertEquals(1, board.pinCount());
+    }
+}
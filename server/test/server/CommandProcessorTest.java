@@ -0,0 +1,92 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import org.junit.jupiter.api.Test;
+
+class CommandProcessorTest {
+
+    private final SharedBboard board = SharedBboardTest.board(NoteStore.Kind.OBJECT);
+    private final BoardRegistry boards =
+            new BoardRegistry(board, BoardLock.Strategy.MONITOR, NoteStore.Kind.OBJECT, 8);
+    private final CommandProcessor processor = new CommandProcessor(boards, new ServerMetrics(),
+            new RequestLog(RequestLog.Level.OFF, 0, 16), "test", true);
+
+    private final StringWriter replies = new StringWriter();
+    private final PrintWriter out = new PrintWriter(replies);
+
+    // Reply lines of one command
+    private String send(String line) {
+        replies.getBuffer().setLength(0);
+        processor.handle(line, out);
+        out.flush();
+        return replies.toString().trim();
+    }
+
+    @Test
+    void batchAppliesAtEnd() {
+        assertEquals("", send("BATCH 3"));
+        assertEquals("", send("POST 0 0 red hello"));
+        assertEquals("", send("PIN 1 1"));
+        assertEquals("", send("POST 0 0 blue same corner"));
+        assertEquals(0, board.noteCount());
+        assertEquals("OK BATCH 2 1 3:COMPLETE_OVERLAP", send("END"));
+        assertEquals(1, board.noteCount());
+    }
+
+    @Test
+    void atomicBatchReportsTheFailingOperation() {
+        send("BATCH 2 ATOMIC");
+        send("POST 0 0 red hello");
+        send("UNPIN 1 1");
+        assertEquals("ERROR BATCH_ABORTED 2:PIN_NOT_FOUND", send("END"));
+        assertEquals(0, board.noteCount());
+    }
+
+    @Test
+    void malformedOperationRejectsTheBatch() {
+        send("BATCH 2");
+        send("POST 0 0");
+        send("PIN 1 1");
+        assertEquals("ERROR INVALID_FORMAT BATCH operation 1: POST requires coordinates, color, and message",
+                send("END"));
+    }
+
+    @Test
+    void disconnectDropsAnOpenBatch() {
+        send("BATCH 2");
+        send("POST 0 0 red hello");
+        replies.getBuffer().setLength(0);
+        assertFalse(processor.handle("DISCONNECT", out));
+        out.flush();
+        assertEquals("OK BYE", replies.toString().trim());
+        assertEquals(0, board.noteCount());
+    }
+
+    // Errors from the binary codec keep their own code in the BATCH reply
+    @Test
+    void binaryOperationErrorKeepsItsCode() throws IOException {
+        send("BATCH 1");
+        ByteBuffer frame = ByteBuffer.allocate(14)
+                .put(BinaryCodec.POST).putInt(0).putInt(0).putInt(7).put((byte) 'x');
+        processor.handleFrame(frame.array(), 0, frame.position(), new ByteArrayOutputStream());
+        assertEquals("ERROR INVALID_FORMAT BATCH operation 1: COLOR_NOT_SUPPORTED 7", send("END"));
+    }
+
+    @Test
+    void joinCreatesBoardsUpToTheMainBoardsSize() {
+        assertTrue(send("JOIN side 50 50 10 5 red").startsWith("OK JOINED side 50 50 10 5 red"));
+        assertTrue(send("JOIN big 1000 1000 10 5 red").startsWith("ERROR BOARD_TOO_LARGE"));
+        // Same area, but tiny notes would need a much finer grid
+        assertTrue(send("JOIN fine 100 50 1 1 red").startsWith("ERROR BOARD_TOO_LARGE"));
+        assertTrue(send("JOIN plain").startsWith("OK JOINED plain 100 50 10 5"));
+        assertEquals(3, boards.size());
+    }
+}
@@ -0,0 +1,58 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class LongHashSetTest {
+
+    @Test
+    void addAndRemoveReportChanges() {
+        LongHashSet set = new LongHashSet();
+        assertTrue(set.add(5));
+        assertFalse(set.add(5));
+        assertTrue(set.contains(5));
+        assertTrue(set.remove(5));
+        assertFalse(set.remove(5));
+        assertFalse(set.contains(5));
+        assertEquals(0, set.size());
+    }
+
+    // Same as LongIntMapTest: collisions make remove() shift entries back
+    @Test
+    void removeKeepsProbeChainsIntact() {
+        Random random = new Random(2);
+        LongHashSet set = new LongHashSet();
+        Set<Long> expected = new HashSet<>();
+
+        for (int step = 0; step < 200_000; step++) {
+            long key = SharedBboard.packXY(random.nextInt(40), random.nextInt(40));
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), set.remove(key));
+            } else {
+                assertEquals(expected.add(key), set.add(key));
+            }
+
+            if (step % 1000 == 0) {
+                assertEquals(expected.size(), set.size());
+                for (int x = 0; x < 40; x++) {
+                    for (int y = 0; y < 40; y++) {
+                        long k = SharedBboard.packXY(x, y);
+                        assertEquals(expected.contains(k), set.contains(k));
+                    }
+                }
+            }
+        }
+
+        long[] keys = set.toArray();
+        Arrays.sort(keys);
+        long[] want = expected.stream().mapToLong(Long::longValue).sorted().toArray();
+        assertTrue(Arrays.equals(want, keys));
+    }
+}
@@ -0,0 +1,70 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class LongIntMapTest {
+
+    @Test
+    void getPutAndMissing() {
+        LongIntMap map = new LongIntMap();
+        assertEquals(LongIntMap.MISSING, map.get(42));
+
+        map.put(42, 7);
+        map.put(SharedBboard.packXY(3, 4), 0);
+        assertEquals(7, map.get(42));
+        assertEquals(0, map.get(SharedBboard.packXY(3, 4)));
+        assertTrue(map.containsKey(42));
+        assertFalse(map.containsKey(43));
+
+        map.put(42, 9); // replaces
+        assertEquals(9, map.get(42));
+        assertEquals(2, map.size());
+    }
+
+    // Random puts and removes over a small key range, so probe chains collide and
+    // remove() has to shift entries back; every key is checked against a HashMap
+    @Test
+    void removeKeepsProbeChainsIntact() {
+        Random random = new Random(1);
+        LongIntMap map = new LongIntMap();
+        Map<Long, Integer> expected = new HashMap<>();
+
+        for (int step = 0; step < 200_000; step++) {
+            long key = SharedBboard.packXY(random.nextInt(40), random.nextInt(40));
+            if (random.nextInt(3) == 0) {
+                map.remove(key);
+                expected.remove(key);
+            } else {
+                int value = random.nextInt(1000);
+                map.put(key, value);
+                expected.put(key, value);
+            }
+
+            if (step % 1000 == 0) {
+                assertEquals(expected.size(), map.size());
+                for (int x = 0; x < 40; x++) {
+                    for (int y = 0; y < 40; y++) {
+                        long k = SharedBboard.packXY(x, y);
+                        assertEquals(expected.getOrDefault(k, LongIntMap.MISSING).intValue(), map.get(k));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void clearEmptiesTheMap() {
+        LongIntMap map = new LongIntMap();
+        for (int i = 0; i < 100; i++) map.put(i, i);
+        map.clear();
+        assertEquals(0, map.size());
+        for (int i = 0; i < 100; i++) assertEquals(LongIntMap.MISSING, map.get(i));
+    }
+}
@@ -0,0 +1,181 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class SharedBboardTest {
+
+    static final String[] COLORS = { "red", "blue", "green" };
+
+    static SharedBboard board(NoteStore.Kind kind) {
+        return new SharedBboard(100, 50, 10, 5, COLORS, BoardLock.Strategy.MONITOR, kind);
+    }
+
+    // Every note with its pinned flag, then every pin: the whole visible board
+    static List<String> contents(SharedBboard board) {
+        List<String> lines = new ArrayList<>();
+        for (SharedBboard.NoteView v : board.queryNotes(null, null, null, null)) {
+            SharedBboard.Note n = v.note;
+            lines.add("NOTE " + n.x + " " + n.y + " " + n.color + " " + n.message + " " + v.pinned);
+        }
+        List<String> pins = new ArrayList<>();
+        for (SharedBboard.Pin p : board.getPinsSnapshot()) pins.add("PIN " + p.x + " " + p.y);
+        pins.sort(null);
+        lines.addAll(pins);
+        return lines;
+    }
+
+    @Test
+    void atomicBatchIsUndoneOnFailure() {
+        for (NoteStore.Kind kind : NoteStore.Kind.values()) {
+            SharedBboard board = board(kind);
+            board.post(0, 0, "red", "first");
+            board.post(20, 10, "blue", "second");
+            board.pin(2, 2);
+            List<String> before = contents(board);
+
+            SharedBboard.Batch batch = new SharedBboard.Batch();
+            batch.post(40, 20, 2, null, "third");   // new note
+            batch.pin(41, 21);                      // pin on it
+            batch.pin(22, 12);                      // pin on an old note
+            batch.unpin(2, 2);                      // existing pin
+            batch.post(95, 0, 0, null, "too wide"); // out of bounds: aborts
+            SharedBboard.BatchResult result = board.applyBatch(batch, true);
+
+            assertEquals(4, result.abortedAt);
+            assertTrue(result.results[4].startsWith("ERROR OUT_OF_BOUNDS"));
+            assertEquals(before, contents(board), kind.name());
+
+            // The indexes were rolled back too: the corner is free and the pin count is right
+            assertEquals("OK NOTE_POSTED", board.post(40, 20, "green", "third again"));
+            assertEquals(0, board.queryNotes(null, 41, 21, null).stream().filter(v -> v.pinned).count());
+            assertEquals(1, board.queryNotes(null, null, null, "third").size());
+        }
+    }
+
+    @Test
+    void atomicBatchAppliesEverythingOnSuccess() {
+        SharedBboard board = board(NoteStore.Kind.OBJECT);
+        SharedBboard.Batch batch = new SharedBboard.Batch();
+        batch.post(0, 0, 0, null, "a");
+        batch.post(10, 0, 1, null, "b");
+        batch.pin(1, 1);
+        SharedBboard.BatchResult result = board.applyBatch(batch, true);
+
+        assertEquals(-1, result.abortedAt);
+        assertTrue(result.persisted);
+        assertEquals(List.of("NOTE 0 0 red a true", "NOTE 10 0 blue b false", "PIN 1 1"), contents(board));
+    }
+
+    @Test
+    void plainBatchAppliesEachOperationOnItsOwn() {
+        SharedBboard board = board(NoteStore.Kind.OBJECT);
+        SharedBboard.Batch batch = new SharedBboard.Batch();
+        batch.post(0, 0, 0, null, "a");
+        batch.post(0, 0, 1, null, "same corner");
+        batch.post(10, 0, -1, "purple", "bad color");
+        batch.pin(1, 1);
+        SharedBboard.BatchResult result = board.applyBatch(batch, false);
+
+        assertEquals(-1, result.abortedAt);
+        assertEquals("OK NOTE_POSTED", result.results[0]);
+        assertTrue(result.results[1].startsWith("ERROR COMPLETE_OVERLAP"));
+        assertEquals("ERROR COLOR_NOT_SUPPORTED purple", result.results[2]);
+        assertEquals("OK PIN_ADDED", result.results[3]);
+        assertEquals(List.of("NOTE 0 0 red a true", "PIN 1 1"), contents(board));
+    }
+
+    // Pages follow the cursor in post order, and notes removed between pages are not repeated
+    @Test
+    void pagesFollowTheCursor() {
+        SharedBboard board = board(NoteStore.Kind.COMPACT);
+        for (int i = 0; i < 25; i++) board.post((i % 9) * 10, (i / 9) * 5, "red", "note " + i);
+
+        SharedBboard.Page first = board.queryPage(null, null, null, null, 0, Integer.MAX_VALUE, 10);
+        assertEquals(10, first.notes.size());
+        assertEquals("note 0", first.notes.get(0).note.message);
+        assertTrue(first.next > 0);
+
+        // Keep only notes 10 and 11 (pinned) from here on
+        board.pin(1 * 10 + 1, 1 * 5 + 1);
+        board.pin(2 * 10 + 1, 1 * 5 + 1);
+        board.shake();
+
+        SharedBboard.Page second = board.queryPage(null, null, null, null, first.next, Integer.MAX_VALUE, 10);
+        assertEquals(2, second.notes.size());
+        assertEquals("note 10", second.notes.get(0).note.message);
+        assertEquals("note 11", second.notes.get(1).note.message);
+        assertEquals(-1, second.next);
+    }
+
+    @Test
+    void lastPageHasNoCursor() {
+        SharedBboard board = board(NoteStore.Kind.OBJECT);
+        for (int i = 0; i < 20; i++) board.post(i * 4, 0, "blue", "n" + i);
+
+        int cursor = 0, seen = 0;
+        while (true) {
+            SharedBboard.Page page = board.queryPage("blue", null, null, null, cursor, Integer.MAX_VALUE, 7);
+            seen += page.notes.size();
+            if (page.next < 0) break;
+            assertEquals(7, page.notes.size());
+            cursor = page.next;
+        }
+        assertEquals(20, seen);
+    }
+
+    // The indexed GET filters (grid, color lists, trigrams) give the same notes as a full scan
+    @Test
+    void filtersMatchAFullScan() {
+        Random random = new Random(4);
+        for (NoteStore.Kind kind : NoteStore.Kind.values()) {
+            SharedBboard board = board(kind);
+            for (int i = 0; i < 300; i++) {
+                board.post(random.nextInt(91), random.nextInt(46), COLORS[random.nextInt(3)],
+                        "msg " + random.nextInt(50) + " ünï " + random.nextInt(50));
+            }
+            List<SharedBboard.NoteView> all = board.queryNotes(null, null, null, null);
+
+            for (int q = 0; q < 200; q++) {
+                String color = random.nextBoolean() ? COLORS[random.nextInt(3)] : null;
+                Integer x = random.nextBoolean() ? random.nextInt(100) : null;
+                Integer y = (x != null) ? random.nextInt(50) : null;
+                String refersTo = random.nextBoolean() ? "sg " + random.nextInt(50) : null;
+
+                List<String> expected = new ArrayList<>();
+                for (SharedBboard.NoteView v : all) {
+                    SharedBboard.Note n = v.note;
+                    if (color != null && !n.color.equals(color)) continue;
+                    if (x != null && !(x >= n.x && x < n.x + 10 && y >= n.y && y < n.y + 5)) continue;
+                    if (refersTo != null && !n.message.contains(refersTo)) continue;
+                    expected.add(n.x + " " + n.y + " " + n.message);
+                }
+                List<String> actual = new ArrayList<>();
+                for (SharedBboard.NoteView v : board.queryNotes(color, x, y, refersTo)) {
+                    actual.add(v.note.x + " " + v.note.y + " " + v.note.message);
+                }
+                assertEquals(expected, actual, kind + " color=" + color + " contains=" + x + "," + y + " refersTo=" + refersTo);
+            }
+        }
+    }
+
+    @Test
+    void shakeKeepsPinnedNotesOnly() {
+        SharedBboard board = board(NoteStore.Kind.OBJECT);
+        board.post(0, 0, "red", "kept");
+        board.post(5, 0, "red", "overlapping, kept");
+        board.post(50, 0, "red", "dropped");
+        board.pin(6, 1);
+        board.shake();
+
+        assertEquals(List.of("NOTE 0 0 red kept true", "NOTE 5 0 red overlapping, kept true", "PIN 6 1"),
+                contents(board));
+        assertFalse(board.isNotePinned(new SharedBboard.Note(50, 0, 0, "red", "dropped")));
+    }
+}
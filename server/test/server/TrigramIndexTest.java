@@ -0,0 +1,73 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class TrigramIndexTest {
+
+    // Messages over a tiny alphabet share many trigrams
+    private static String randomText(Random random, int maxLength) {
+        StringBuilder sb = new StringBuilder();
+        int len = random.nextInt(maxLength + 1);
+        for (int i = 0; i < len; i++) sb.append("abc ".charAt(random.nextInt(4)));
+        return sb.toString();
+    }
+
+    private static List<Integer> ids(IntList list) {
+        List<Integer> result = new ArrayList<>();
+        for (int i = 0; i < list.size(); i++) result.add(list.get(i));
+        return result;
+    }
+
+    // Every note containing the query is a candidate, and candidates stay sorted
+    @Test
+    void candidatesCoverEveryMatch() {
+        Random random = new Random(3);
+        TrigramIndex index = new TrigramIndex();
+        List<String> messages = new ArrayList<>();
+        for (int id = 0; id < 2000; id++) {
+            String m = randomText(random, 20);
+            messages.add(m);
+            index.add(id, m);
+        }
+
+        for (int q = 0; q < 500; q++) {
+            String query = randomText(random, 6);
+            IntList candidates = index.candidates(query);
+            if (query.length() < TrigramIndex.GRAM) {
+                assertNull(candidates);
+                continue;
+            }
+            List<Integer> found = ids(candidates);
+            for (int i = 1; i < found.size(); i++) assertTrue(found.get(i - 1) < found.get(i));
+            for (int id = 0; id < messages.size(); id++) {
+                if (messages.get(id).contains(query)) assertTrue(found.contains(id), query + " misses note " + id);
+            }
+        }
+    }
+
+    @Test
+    void unknownTrigramHasNoCandidates() {
+        TrigramIndex index = new TrigramIndex();
+        index.add(0, "hello world");
+        assertEquals(0, index.candidates("xyz").size());
+        assertEquals(List.of(0), ids(index.candidates("wor")));
+    }
+
+    @Test
+    void removeLastUndoesAdd() {
+        TrigramIndex index = new TrigramIndex();
+        index.add(0, "meeting at noon");
+        index.add(1, "meeting moved");
+        index.removeLast(1, "meeting moved");
+
+        assertEquals(List.of(0), ids(index.candidates("meeting")));
+        assertEquals(0, index.candidates("moved").size());
+    }
+}
@@ -0,0 +1,138 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class WriteAheadLogTest {
+
+    @TempDir
+    Path dir;
+
+    private static SharedBboard board() {
+        return SharedBboardTest.board(NoteStore.Kind.OBJECT);
+    }
+
+    // A few changes of every kind; returns the board contents they lead to
+    private static List<String> fill(SharedBboard board) {
+        board.post(0, 0, "red", "one");
+        board.post(30, 0, "blue", "two");
+        board.post(60, 20, "green", "three");
+        board.pin(1, 1);
+        board.pin(61, 21);
+        board.unpin(61, 21);
+        board.shake();
+        board.post(30, 10, "red", "four");
+        board.pin(31, 11);
+        return SharedBboardTest.contents(board);
+    }
+
+    @Test
+    void replayRebuildsTheBoard() throws IOException {
+        for (WriteAheadLog.Durability durability : WriteAheadLog.Durability.values()) {
+            Path log = dir.resolve("board-" + durability + ".log");
+            SharedBboard board = board();
+            WriteAheadLog wal = board.openLog(log, durability);
+            List<String> expected = fill(board);
+            wal.close();
+
+            SharedBboard reopened = board();
+            WriteAheadLog again = reopened.openLog(log, durability);
+            assertEquals(9, again.replayedRecords());
+            assertEquals(expected, SharedBboardTest.contents(reopened), durability.name());
+            again.close();
+        }
+    }
+
+    // A record cut short by a crash is dropped and the file is cut back to the last whole record
+    @Test
+    void tornTailIsTruncated() throws IOException {
+        Path log = dir.resolve("board.log");
+        SharedBboard board = board();
+        WriteAheadLog wal = board.openLog(log, WriteAheadLog.Durability.PER_OP);
+        List<String> expected = fill(board);
+        wal.close();
+
+        Path segment = WriteAheadLog.segmentPath(log, 1);
+        long goodSize = Files.size(segment);
+        byte[] record = WriteAheadLog.postRecord(90, 40, "red", "never finished");
+        try (FileChannel ch = FileChannel.open(segment, StandardOpenOption.APPEND)) {
+            ByteBuffer torn = ByteBuffer.allocate(8 + record.length / 2);
+            torn.putInt(record.length).putInt(0x12345678).put(record, 0, record.length / 2).flip();
+            ch.write(torn);
+        }
+
+        SharedBboard reopened = board();
+        WriteAheadLog again = reopened.openLog(log, WriteAheadLog.Durability.PER_OP);
+        assertEquals(expected, SharedBboardTest.contents(reopened));
+        assertEquals(goodSize, Files.size(segment));
+
+        // Appending continues right after the last good record
+        reopened.post(80, 40, "blue", "after the tear");
+        again.close();
+        SharedBboard third = board();
+        third.openLog(log, WriteAheadLog.Durability.PER_OP).close();
+        assertEquals(SharedBboardTest.contents(reopened), SharedBboardTest.contents(third));
+    }
+
+    @Test
+    void snapshotDropsOlderSegments() throws IOException {
+        Path log = dir.resolve("board.log");
+        SharedBboard board = board();
+        WriteAheadLog wal = board.openLog(log, WriteAheadLog.Durability.BATCHED);
+        fill(board);
+        assertTrue(board.snapshot() >= 0);
+        assertEquals(-1, board.snapshot()); // nothing changed since
+        board.post(80, 40, "blue", "after the snapshot");
+        List<String> expected = SharedBboardTest.contents(board);
+        wal.close();
+
+        assertFalse(Files.exists(WriteAheadLog.segmentPath(log, 1)));
+        SharedBboard reopened = board();
+        WriteAheadLog again = reopened.openLog(log, WriteAheadLog.Durability.BATCHED);
+        assertEquals(1, again.replayedRecords());
+        assertEquals(expected, SharedBboardTest.contents(reopened));
+        again.close();
+    }
+
+    // After a write error nothing more is written or applied, so the log never
+    // holds changes that come after a lost one
+    @Test
+    void firstWriteErrorStopsTheLog() throws Exception {
+        Path log = dir.resolve("board.log");
+        SharedBboard board = board();
+        WriteAheadLog wal = board.openLog(log, WriteAheadLog.Durability.PER_OP);
+        assertEquals("OK NOTE_POSTED", board.post(0, 0, "red", "saved"));
+
+        // Break the file underneath the log
+        Field channel = WriteAheadLog.class.getDeclaredField("channel");
+        channel.setAccessible(true);
+        ((FileChannel) channel.get(wal)).close();
+
+        assertTrue(board.post(20, 0, "red", "lost").startsWith("ERROR LOG_WRITE_FAILED"));
+        assertTrue(wal.failed());
+        assertTrue(board.post(40, 0, "red", "refused").startsWith("ERROR LOG_WRITE_FAILED"));
+        assertTrue(board.pin(1, 1).startsWith("ERROR LOG_WRITE_FAILED"));
+        assertEquals(2, board.noteCount());
+        assertEquals(0, board.pinCount());
+
+        SharedBboard.Batch batch = new SharedBboard.Batch();
+        batch.pin(1, 1);
+        assertEquals(0, board.applyBatch(batch, true).abortedAt);
+
+        SharedBboard reopened = board();
+        reopened.openLog(log, WriteAheadLog.Durability.PER_OP).close();
+        assertEquals(List.of("NOTE 0 0 red saved false"), SharedBboardTest.contents(reopened));
+    }
+}